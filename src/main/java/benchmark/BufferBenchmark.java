@@ -0,0 +1,32 @@
+package benchmark;
+
+public class BufferBenchmark implements CSVData {
+    private String buffer;
+    private int threads;
+    private long operations;
+    private long resolved;
+    private double opsPerSec;
+
+    public static String[] header() {
+        return new String[] {"Buffer", "Threads", "Operations", "Resolved", "OpsPerSec"};
+    }
+
+    public BufferBenchmark(String buffer, int threads, long operations, long resolved, double opsPerSec) {
+        this.buffer = buffer;
+        this.threads = threads;
+        this.operations = operations;
+        this.resolved = resolved;
+        this.opsPerSec = opsPerSec;
+    }
+
+    @Override
+    public String[] row() {
+        return new String[] {
+                buffer,
+                Integer.toString(threads),
+                Long.toString(operations),
+                Long.toString(resolved),
+                Double.toString(opsPerSec)
+        };
+    }
+}
@@ -0,0 +1,140 @@
+package benchmark;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates latency samples from many threads in a log-bucketed histogram.
+ *
+ * Each power of two is split into 8 buckets, so percentiles are accurate to
+ * within 12.5% for any latency, using a fixed 4KB of counts.
+ */
+public class Latency {
+    /*
+     * The number of bits of a sample below its leading one bit that select
+     * its bucket within a power of two.
+     */
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    /*
+     * The number of samples in each bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+    /*
+     * Return the bucket of a sample of [nanos].
+     */
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /*
+     * Return the largest sample in [bucket].
+     */
+    private static long highestIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Record a sample.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        buckets.incrementAndGet(bucketOf(nanos));
+    }
+
+    /**
+     * Add the samples recorded in another histogram to this one.
+     *
+     * @param other The other histogram.
+     */
+    public void add(Latency other) {
+        count.add(other.count.sum());
+        totalNanos.add(other.totalNanos.sum());
+        for (int i = 0; i < buckets.length(); i++) {
+            long n = other.buckets.get(i);
+            if (n != 0) {
+                buckets.addAndGet(i, n);
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The mean latency in microseconds, or 0 if nothing was recorded.
+     */
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+    }
+
+    /**
+     * @return The mean of the samples as recorded, for samples that are not
+     *         latencies, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalNanos.sum() / n;
+    }
+
+    /**
+     * Return a percentile of the recorded samples, rounded up to the largest
+     * latency in its bucket.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency in microseconds, or 0 if nothing was recorded.
+     */
+    public double getPercentileMicros(double percentile) {
+        return getPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * Return a percentile of the samples as recorded, for samples that are not
+     * latencies, rounded up to the largest sample in its bucket. Samples
+     * below 8 are exact.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The sample, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[buckets.length()];
+        long n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestIn(i);
+            }
+        }
+        return highestIn(counts.length - 1);
+    }
+}
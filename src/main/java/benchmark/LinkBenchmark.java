@@ -0,0 +1,45 @@
+package benchmark;
+
+public class LinkBenchmark implements CSVData, Comparable<LinkBenchmark> {
+    private int worker;
+    private int store;
+    private long messages;
+    private long bytes;
+    private Latency queueLatency;
+    private Latency delayLatency;
+
+    public static String[] header() {
+        return new String[] {"Worker", "Store", "Messages", "Bytes", "QueueMicros", "QueueP99", "DelayMicros",
+                "DelayP50", "DelayP99"};
+    }
+
+    public LinkBenchmark(int worker, int store, long messages, long bytes, Latency queueLatency,
+                         Latency delayLatency) {
+        this.worker = worker;
+        this.store = store;
+        this.messages = messages;
+        this.bytes = bytes;
+        this.queueLatency = queueLatency;
+        this.delayLatency = delayLatency;
+    }
+
+    @Override
+    public int compareTo(LinkBenchmark other) {
+        return worker != other.worker ? Integer.compare(worker, other.worker) : Integer.compare(store, other.store);
+    }
+
+    @Override
+    public String[] row() {
+        return new String[] {
+                Integer.toString(worker),
+                Integer.toString(store),
+                Long.toString(messages),
+                Long.toString(bytes),
+                Double.toString(queueLatency.getMeanMicros()),
+                Double.toString(queueLatency.getPercentileMicros(99)),
+                Double.toString(delayLatency.getMeanMicros()),
+                Double.toString(delayLatency.getPercentileMicros(50)),
+                Double.toString(delayLatency.getPercentileMicros(99))
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package benchmark;
+
+public class LockBenchmark implements CSVData {
+    private String kind;
+    private int threads;
+    private long grabs;
+    private long granted;
+    private double grabsPerSec;
+
+    public static String[] header() {
+        return new String[] {"Kind", "Threads", "Grabs", "Granted", "GrabsPerSec"};
+    }
+
+    public LockBenchmark(String kind, int threads, long grabs, long granted, double grabsPerSec) {
+        this.kind = kind;
+        this.threads = threads;
+        this.grabs = grabs;
+        this.granted = granted;
+        this.grabsPerSec = grabsPerSec;
+    }
+
+    @Override
+    public String[] row() {
+        return new String[] {
+                kind,
+                Integer.toString(threads),
+                Long.toString(grabs),
+                Long.toString(granted),
+                Double.toString(grabsPerSec)
+        };
+    }
+}
@@ -0,0 +1,33 @@
+package benchmark;
+
+public class RecoveryBenchmark implements CSVData {
+    private int objects;
+    private double checkpointMillis;
+    private long checkpointBytes;
+    private int tailRecords;
+    private double recoveryMillis;
+
+    public static String[] header() {
+        return new String[] {"Objects", "CheckpointMillis", "CheckpointBytes", "TailRecords", "RecoveryMillis"};
+    }
+
+    public RecoveryBenchmark(int objects, double checkpointMillis, long checkpointBytes, int tailRecords,
+                             double recoveryMillis) {
+        this.objects = objects;
+        this.checkpointMillis = checkpointMillis;
+        this.checkpointBytes = checkpointBytes;
+        this.tailRecords = tailRecords;
+        this.recoveryMillis = recoveryMillis;
+    }
+
+    @Override
+    public String[] row() {
+        return new String[] {
+                Integer.toString(objects),
+                Double.toString(checkpointMillis),
+                Long.toString(checkpointBytes),
+                Integer.toString(tailRecords),
+                Double.toString(recoveryMillis)
+        };
+    }
+}
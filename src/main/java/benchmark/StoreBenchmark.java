@@ -1,5 +1,7 @@
 package benchmark;
 
+import java.util.List;
+
 public class StoreBenchmark implements CSVData {
     private int pending;
     private int inBuffer;
@@ -8,6 +10,33 @@ public class StoreBenchmark implements CSVData {
     private int bufferResolved;
     private int bufferAbortedLock;
     private int bufferAbortedVC;
+    private int bufferTimeout;
+    private int bufferCascade;
+    private int bufferDeps;
+    private int bufferPeak;
+    private int bufferRejected;
+    private int lockTableSize;
+    private Latency lockWaitLatency;
+    private int lockDied;
+    private int lockWounded;
+    private int lockWaitTimeout;
+    private double commitMicros;
+    private Latency commitBatch;
+    private int logRecords;
+    private long logBytes;
+    private double logRecordsPerSec;
+    private Latency logSyncLatency;
+    private Latency checkpointLatency;
+    private long checkpointBytes;
+    private double resolveMicros;
+    private Latency bufferLatency;
+    private Latency lockLatency;
+    private Latency prepareLatency;
+    private long snapshotReads;
+    private long snapshotTooOld;
+    private long versions;
+    private long versionBytes;
+    private long versionsCollected;
 
     public StoreBenchmark(int pending,
                           int inBuffer,
@@ -15,7 +44,29 @@ public class StoreBenchmark implements CSVData {
                           int abortedVC,
                           int bufferResolved,
                           int bufferAbortedLock,
-                          int bufferAbortedVC) {
+                          int bufferAbortedVC,
+                          int bufferTimeout,
+                          int bufferCascade,
+                          int bufferDeps,
+                          int bufferPeak,
+                          int bufferRejected,
+                          int lockTableSize,
+                          Latency lockWaitLatency,
+                          int lockDied,
+                          int lockWounded,
+                          int lockWaitTimeout,
+                          double commitMicros,
+                          Latency commitBatch,
+                          int logRecords,
+                          long logBytes,
+                          double logRecordsPerSec,
+                          Latency logSyncLatency,
+                          Latency checkpointLatency,
+                          long checkpointBytes,
+                          double resolveMicros,
+                          Latency bufferLatency,
+                          Latency lockLatency,
+                          Latency prepareLatency) {
         this.pending = pending;
         this.inBuffer = inBuffer;
         this.abortedLock = abortedLock;
@@ -23,6 +74,101 @@ public class StoreBenchmark implements CSVData {
         this.bufferResolved = bufferResolved;
         this.bufferAbortedLock = bufferAbortedLock;
         this.bufferAbortedVC = bufferAbortedVC;
+        this.bufferTimeout = bufferTimeout;
+        this.bufferCascade = bufferCascade;
+        this.bufferDeps = bufferDeps;
+        this.bufferPeak = bufferPeak;
+        this.bufferRejected = bufferRejected;
+        this.lockTableSize = lockTableSize;
+        this.lockWaitLatency = lockWaitLatency;
+        this.lockDied = lockDied;
+        this.lockWounded = lockWounded;
+        this.lockWaitTimeout = lockWaitTimeout;
+        this.commitMicros = commitMicros;
+        this.commitBatch = commitBatch;
+        this.logRecords = logRecords;
+        this.logBytes = logBytes;
+        this.logRecordsPerSec = logRecordsPerSec;
+        this.logSyncLatency = logSyncLatency;
+        this.checkpointLatency = checkpointLatency;
+        this.checkpointBytes = checkpointBytes;
+        this.resolveMicros = resolveMicros;
+        this.bufferLatency = bufferLatency;
+        this.lockLatency = lockLatency;
+        this.prepareLatency = prepareLatency;
+    }
+
+    /**
+     * Add the statistics of a store that keeps versioned values.
+     *
+     * @return This benchmark.
+     */
+    public StoreBenchmark withVersions(long snapshotReads, long snapshotTooOld, long versions, long versionBytes,
+                                       long versionsCollected) {
+        this.snapshotReads = snapshotReads;
+        this.snapshotTooOld = snapshotTooOld;
+        this.versions = versions;
+        this.versionBytes = versionBytes;
+        this.versionsCollected = versionsCollected;
+        return this;
+    }
+
+    /**
+     * Combine the benchmarks of the partitions of one store: counts and
+     * sizes add up, latency samples are pooled, and mean times are averaged
+     * over the partitions.
+     *
+     * @param parts The benchmarks of the partitions.
+     * @return The benchmark of the whole store.
+     */
+    public static StoreBenchmark merge(List<StoreBenchmark> parts) {
+        Latency lockWaitLatency = new Latency();
+        Latency commitBatch = new Latency();
+        Latency logSyncLatency = new Latency();
+        Latency checkpointLatency = new Latency();
+        Latency bufferLatency = new Latency();
+        Latency lockLatency = new Latency();
+        Latency prepareLatency = new Latency();
+        StoreBenchmark res = new StoreBenchmark(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, lockWaitLatency, 0, 0, 0,
+                0, commitBatch, 0, 0, 0, logSyncLatency, checkpointLatency, 0, 0, bufferLatency, lockLatency,
+                prepareLatency);
+        for (StoreBenchmark part : parts) {
+            res.pending += part.pending;
+            res.inBuffer += part.inBuffer;
+            res.abortedLock += part.abortedLock;
+            res.abortedVC += part.abortedVC;
+            res.bufferResolved += part.bufferResolved;
+            res.bufferAbortedLock += part.bufferAbortedLock;
+            res.bufferAbortedVC += part.bufferAbortedVC;
+            res.bufferTimeout += part.bufferTimeout;
+            res.bufferCascade += part.bufferCascade;
+            res.bufferDeps += part.bufferDeps;
+            res.bufferPeak += part.bufferPeak;
+            res.bufferRejected += part.bufferRejected;
+            res.lockTableSize += part.lockTableSize;
+            lockWaitLatency.add(part.lockWaitLatency);
+            res.lockDied += part.lockDied;
+            res.lockWounded += part.lockWounded;
+            res.lockWaitTimeout += part.lockWaitTimeout;
+            res.commitMicros += part.commitMicros / parts.size();
+            commitBatch.add(part.commitBatch);
+            res.logRecords += part.logRecords;
+            res.logBytes += part.logBytes;
+            res.logRecordsPerSec += part.logRecordsPerSec;
+            logSyncLatency.add(part.logSyncLatency);
+            checkpointLatency.add(part.checkpointLatency);
+            res.checkpointBytes += part.checkpointBytes;
+            res.resolveMicros += part.resolveMicros / parts.size();
+            bufferLatency.add(part.bufferLatency);
+            lockLatency.add(part.lockLatency);
+            prepareLatency.add(part.prepareLatency);
+            res.snapshotReads += part.snapshotReads;
+            res.snapshotTooOld += part.snapshotTooOld;
+            res.versions += part.versions;
+            res.versionBytes += part.versionBytes;
+            res.versionsCollected += part.versionsCollected;
+        }
+        return res;
     }
 
     public static String[] header() {
@@ -33,7 +179,47 @@ public class StoreBenchmark implements CSVData {
                 "AbortedVC",
                 "BufferResolved",
                 "BufferAbortedLock",
-                "BufferAbortedVC"
+                "BufferAbortedVC",
+                "BufferTimeout",
+                "BufferCascade",
+                "BufferDeps",
+                "BufferPeak",
+                "BufferRejected",
+                "LockTableSize",
+                "LockWaitP50",
+                "LockWaitP99",
+                "LockDied",
+                "LockWounded",
+                "LockWaitTimeout",
+                "CommitMicros",
+                "CommitBatches",
+                "CommitBatchMean",
+                "CommitBatchP50",
+                "CommitBatchP99",
+                "LogRecords",
+                "LogBytes",
+                "LogRecordsPerSec",
+                "LogSyncs",
+                "LogSyncP50",
+                "LogSyncP99",
+                "Checkpoints",
+                "CheckpointMillis",
+                "CheckpointBytes",
+                "SnapshotReads",
+                "SnapshotTooOld",
+                "Versions",
+                "VersionBytes",
+                "VersionsCollected",
+                "ResolveMicros",
+                "BufferP50",
+                "BufferP99",
+                "BufferP999",
+                "LockP50",
+                "LockP99",
+                "LockP999",
+                "PrepareP50",
+                "PrepareP99",
+                "PrepareP999"
         };
     }
 
@@ -46,7 +232,47 @@ public class StoreBenchmark implements CSVData {
                 Integer.toString(abortedVC),
                 Integer.toString(bufferResolved),
                 Integer.toString(bufferAbortedLock),
-                Integer.toString(bufferAbortedVC)
+                Integer.toString(bufferAbortedVC),
+                Integer.toString(bufferTimeout),
+                Integer.toString(bufferCascade),
+                Integer.toString(bufferDeps),
+                Integer.toString(bufferPeak),
+                Integer.toString(bufferRejected),
+                Integer.toString(lockTableSize),
+                Double.toString(lockWaitLatency.getPercentileMicros(50)),
+                Double.toString(lockWaitLatency.getPercentileMicros(99)),
+                Integer.toString(lockDied),
+                Integer.toString(lockWounded),
+                Integer.toString(lockWaitTimeout),
+                Double.toString(commitMicros),
+                Long.toString(commitBatch.getCount()),
+                Double.toString(commitBatch.getMean()),
+                Long.toString(commitBatch.getPercentile(50)),
+                Long.toString(commitBatch.getPercentile(99)),
+                Integer.toString(logRecords),
+                Long.toString(logBytes),
+                Double.toString(logRecordsPerSec),
+                Long.toString(logSyncLatency.getCount()),
+                Double.toString(logSyncLatency.getPercentileMicros(50)),
+                Double.toString(logSyncLatency.getPercentileMicros(99)),
+                Long.toString(checkpointLatency.getCount()),
+                Double.toString(checkpointLatency.getMeanMicros() / 1000),
+                Long.toString(checkpointBytes),
+                Long.toString(snapshotReads),
+                Long.toString(snapshotTooOld),
+                Long.toString(versions),
+                Long.toString(versionBytes),
+                Long.toString(versionsCollected),
+                Double.toString(resolveMicros),
+                Double.toString(bufferLatency.getPercentileMicros(50)),
+                Double.toString(bufferLatency.getPercentileMicros(99)),
+                Double.toString(bufferLatency.getPercentileMicros(99.9)),
+                Double.toString(lockLatency.getPercentileMicros(50)),
+                Double.toString(lockLatency.getPercentileMicros(99)),
+                Double.toString(lockLatency.getPercentileMicros(99.9)),
+                Double.toString(prepareLatency.getPercentileMicros(50)),
+                Double.toString(prepareLatency.getPercentileMicros(99)),
+                Double.toString(prepareLatency.getPercentileMicros(99.9))
         };
     }
 }
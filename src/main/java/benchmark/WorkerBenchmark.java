@@ -4,15 +4,30 @@ public class WorkerBenchmark implements CSVData {
     private int completed;
     private int aborted;
     private int abortedLock;
+    private int lockTableSize;
+    private Latency lockWaitLatency;
+    private int lockDied;
+    private int lockWounded;
+    private int lockWaitTimeout;
+    private Latency prepareLatency;
 
     public static String[] header() {
-        return new String[] {"Completed", "Aborted", "AbortedLock"};
+        return new String[] {"Completed", "Aborted", "AbortedLock", "LockTableSize", "LockWaitP50", "LockWaitP99", "LockDied",
+                "LockWounded", "LockWaitTimeout", "PrepareP50", "PrepareP99", "PrepareP999"};
     }
 
-    public WorkerBenchmark(int completed, int aborted, int abortedLock) {
+    public WorkerBenchmark(int completed, int aborted, int abortedLock, int lockTableSize,
+                           Latency lockWaitLatency, int lockDied, int lockWounded, int lockWaitTimeout,
+                           Latency prepareLatency) {
         this.completed = completed;
         this.aborted = aborted;
         this.abortedLock = abortedLock;
+        this.lockTableSize = lockTableSize;
+        this.lockWaitLatency = lockWaitLatency;
+        this.lockDied = lockDied;
+        this.lockWounded = lockWounded;
+        this.lockWaitTimeout = lockWaitTimeout;
+        this.prepareLatency = prepareLatency;
     }
 
     @Override
@@ -20,7 +35,16 @@ public class WorkerBenchmark implements CSVData {
         return new String[] {
                 Integer.toString(completed),
                 Integer.toString(aborted),
-                Integer.toString(abortedLock)
+                Integer.toString(abortedLock),
+                Integer.toString(lockTableSize),
+                Double.toString(lockWaitLatency.getPercentileMicros(50)),
+                Double.toString(lockWaitLatency.getPercentileMicros(99)),
+                Integer.toString(lockDied),
+                Integer.toString(lockWounded),
+                Integer.toString(lockWaitTimeout),
+                Double.toString(prepareLatency.getPercentileMicros(50)),
+                Double.toString(prepareLatency.getPercentileMicros(99)),
+                Double.toString(prepareLatency.getPercentileMicros(99.9))
         };
     }
 }
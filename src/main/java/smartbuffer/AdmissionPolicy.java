@@ -0,0 +1,169 @@
+package smartbuffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how many transactions, and how many dependencies of those
+ * transactions, a store may keep in its buffer at once.
+ *
+ * A transaction is admitted before it is added to the buffer and released
+ * once the buffer resolves it. When the buffer is full, the policy either
+ * rejects the transaction right away or blocks the caller for a bounded time
+ * waiting for room. A transaction is always admitted into an empty buffer, so
+ * one with more dependencies than the limit can still make progress.
+ */
+public class AdmissionPolicy {
+    /**
+     * What to do with a transaction that does not fit in the buffer.
+     */
+    public enum Mode {
+        /*
+         * Reject the transaction immediately.
+         */
+        Reject,
+
+        /*
+         * Wait for room, and reject the transaction if none frees up in time.
+         */
+        Block
+    }
+
+    /*
+     * The maximum number of buffered transactions, 0 for no limit.
+     */
+    private final int maxTxns;
+
+    /*
+     * The maximum number of dependencies of buffered transactions, 0 for no
+     * limit.
+     */
+    private final int maxDeps;
+
+    private final Mode mode;
+
+    private final long maxWaitNanos;
+
+    /*
+     * The number of admitted transactions in the upper 32 bits, and the number
+     * of their dependencies in the lower 32 bits, so both are updated by a
+     * single CAS.
+     */
+    private final AtomicLong occupancy;
+
+    private final AtomicInteger peakTxns;
+
+    private final AtomicInteger numRejected;
+
+    /**
+     * Create a new admission policy.
+     *
+     * @param maxTxns The maximum number of buffered transactions, 0 for no
+     *                limit.
+     * @param maxDeps The maximum number of dependencies of buffered
+     *                transactions, 0 for no limit.
+     * @param mode What to do with transactions that do not fit.
+     * @param maxWaitMillis How long to wait for room in {@link Mode#Block}.
+     */
+    public AdmissionPolicy(int maxTxns, int maxDeps, Mode mode, long maxWaitMillis) {
+        this.maxTxns = maxTxns;
+        this.maxDeps = maxDeps;
+        this.mode = mode;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.occupancy = new AtomicLong();
+        this.peakTxns = new AtomicInteger();
+        this.numRejected = new AtomicInteger();
+    }
+
+    /**
+     * Create a policy that admits every transaction and only keeps track of
+     * the occupancy of the buffer.
+     */
+    public static AdmissionPolicy unbounded() {
+        return new AdmissionPolicy(0, 0, Mode.Reject, 0);
+    }
+
+    /*
+     * Admit a transaction if it fits. Return true iff it was admitted.
+     */
+    private boolean tryAdmit(int deps) {
+        while (true) {
+            long current = occupancy.get();
+            int txns = (int) (current >>> 32);
+            int tracked = (int) current;
+            if (txns > 0 && ((maxTxns > 0 && txns + 1 > maxTxns) || (maxDeps > 0 && tracked + deps > maxDeps))) {
+                return false;
+            }
+            if (occupancy.compareAndSet(current, current + (1L << 32) + deps)) {
+                peakTxns.accumulateAndGet(txns + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Admit a transaction into the buffer. Every admitted transaction must
+     * later be released with {@link AdmissionPolicy#release(int)}.
+     *
+     * @param deps The number of dependencies of the transaction.
+     * @return {@code true} iff the transaction was admitted.
+     */
+    public boolean admit(int deps) {
+        if (tryAdmit(deps)) {
+            return true;
+        }
+        if (mode == Mode.Block) {
+            long deadline = System.nanoTime() + maxWaitNanos;
+            synchronized (this) {
+                while (true) {
+                    if (tryAdmit(deps)) {
+                        return true;
+                    }
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        break;
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        numRejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Release a transaction that has left the buffer.
+     *
+     * @param deps The number of dependencies it was admitted with.
+     */
+    public void release(int deps) {
+        occupancy.addAndGet(-((1L << 32) + deps));
+        if (mode == Mode.Block) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    public int getNumTxns() {
+        return (int) (occupancy.get() >>> 32);
+    }
+
+    public int getNumDeps() {
+        return (int) occupancy.get();
+    }
+
+    public int getPeakTxns() {
+        return peakTxns.get();
+    }
+
+    public int getNumRejected() {
+        return numRejected.get();
+    }
+}
@@ -0,0 +1,383 @@
+package smartbuffer;
+
+import benchmark.Latency;
+import smartbuffer.ResolutionListener.Reason;
+import util.ObjectVN;
+import util.Store;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link SmartBuffer} that keeps one record per buffered transaction. Each
+ * record carries an atomic count of unresolved dependencies and a one-shot
+ * completion flag, so transactions are resolved and ejected with CAS instead
+ * of per-transaction monitors.
+ */
+public class LockFreeBuffer implements SmartBuffer {
+    /*
+     * A transaction in the buffer.
+     */
+    private static class TxnRecord {
+        final long tid;
+
+        final Set<ObjectVN> deps;
+
+        /*
+         * The number of unresolved dependencies, plus one while the
+         * transaction is still being added to the buffer.
+         */
+        final AtomicInteger unresolved;
+
+        /*
+         * Set exactly once, by whoever resolves, ejects or deletes the
+         * transaction.
+         */
+        final AtomicBoolean done;
+
+        /*
+         * The timeout of the transaction, if it has one, cancelled once it
+         * is done.
+         */
+        volatile TimingWheel.Entry timeout;
+
+        final ResolutionListener listener;
+
+        TxnRecord(long tid, Set<ObjectVN> deps, ResolutionListener listener) {
+            this.tid = tid;
+            this.deps = deps;
+            this.unresolved = new AtomicInteger(1);
+            this.done = new AtomicBoolean(false);
+            this.listener = listener;
+        }
+    }
+
+    /*
+     * A map from the object to transactions that depend on the object.
+     *
+     * The sets are only modified inside {@code compute} calls on the map, or
+     * after they have been removed from the map.
+     */
+    private ConcurrentHashMap<ObjectVN, Set<TxnRecord>> depsMap;
+
+    /*
+     * A map from the object to transactions that depend on the object and that
+     * the dependency is not resolved. A transaction's unresolved count is
+     * decremented by whoever removes it from this map.
+     */
+    private ConcurrentHashMap<ObjectVN, Set<TxnRecord>> unresolveddepsMap;
+
+    /*
+     * A map from tid to the record of transactions in the buffer.
+     */
+    private ConcurrentHashMap<Long, TxnRecord> records;
+
+    /*
+     * A pointer to the store that the buffer is associated with.
+     */
+    public Store store;
+
+    /*
+     * The executor that grabs locks for transactions leaving the buffer.
+     */
+    private Executor resolver;
+
+    private Latency resolveLatency;
+
+    /*
+     * Ejects transactions that wait for longer than their timeout.
+     */
+    private TimingWheel timer;
+
+    /*
+     * The timeout of transactions added without one, 0 for none.
+     */
+    private long defaultTimeout;
+
+    private LongAdder num_abort_lock;
+    private LongAdder num_abort_vc;
+    private LongAdder num_resolve;
+    private LongAdder num_timeout;
+    private LongAdder num_cascade;
+
+    public LockFreeBuffer() {
+        depsMap = new ConcurrentHashMap<>();
+        unresolveddepsMap = new ConcurrentHashMap<>();
+        records = new ConcurrentHashMap<>();
+        resolver = Runnable::run;
+        resolveLatency = new Latency();
+        timer = new TimingWheel();
+        defaultTimeout = 0;
+
+        num_abort_lock = new LongAdder();
+        num_abort_vc = new LongAdder();
+        num_resolve = new LongAdder();
+        num_timeout = new LongAdder();
+        num_cascade = new LongAdder();
+    }
+
+    /*
+     * Add [record] to the set of [object] in [map].
+     */
+    private static void register(ConcurrentHashMap<ObjectVN, Set<TxnRecord>> map, ObjectVN object, TxnRecord record) {
+        map.compute(object, (k, s) -> {
+            if (s == null) {
+                s = new HashSet<>();
+            }
+            s.add(record);
+            return s;
+        });
+    }
+
+    /*
+     * Remove [record] from the set of [object] in [map]. Return true iff the
+     * record was still in the map.
+     */
+    private static boolean unregister(ConcurrentHashMap<ObjectVN, Set<TxnRecord>> map, ObjectVN object, TxnRecord record) {
+        boolean[] removed = {false};
+        map.computeIfPresent(object, (k, s) -> {
+            removed[0] = s.remove(record);
+            return s.isEmpty() ? null : s;
+        });
+        return removed[0];
+    }
+
+    /*
+     * Take [record] out of the buffer. Return true iff the caller is the one
+     * that completes the transaction.
+     */
+    private boolean finish(TxnRecord record) {
+        if (!record.done.compareAndSet(false, true)) {
+            return false;
+        }
+        records.remove(record.tid, record);
+        TimingWheel.Entry timeout = record.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        for (ObjectVN object : record.deps) {
+            unregister(depsMap, object, record);
+            unregister(unresolveddepsMap, object, record);
+        }
+        return true;
+    }
+
+    /*
+     * Drop [record] because of a version conflict.
+     */
+    private void abortVC(TxnRecord record) {
+        if (finish(record)) {
+            num_abort_vc.increment();
+            record.listener.onResolve(record.tid, false, Reason.VersionConflict);
+        }
+    }
+
+    /*
+     * Resolve [count] dependencies of [record], handing the transaction to
+     * the resolver to grab its locks if they were the last ones.
+     */
+    private void release(TxnRecord record, int count) {
+        if (record.unresolved.addAndGet(-count) == 0 && finish(record)) {
+            long ready = System.nanoTime();
+            resolver.execute(() -> {
+                boolean res = store.grabLock(record.tid);
+                if (!res) {
+                    num_abort_lock.increment();
+                } else {
+                    num_resolve.increment();
+                }
+                resolveLatency.record(System.nanoTime() - ready);
+                record.listener.onResolve(record.tid, res, res ? Reason.Prepared : Reason.LockConflict);
+            });
+        }
+    }
+
+    /*
+     * Eject [record] if it is still waiting in the buffer.
+     */
+    private void expire(TxnRecord record) {
+        if (finish(record)) {
+            num_timeout.increment();
+            record.listener.onResolve(record.tid, false, Reason.Timeout);
+        }
+    }
+
+    @Override
+    public void add(long tid, Set<ObjectVN> deps, ResolutionListener listener) {
+        add(tid, deps, defaultTimeout, listener);
+    }
+
+    @Override
+    public void add(long tid, Set<ObjectVN> deps, long timeout, ResolutionListener listener) {
+        TxnRecord record = new TxnRecord(tid, deps, listener);
+        records.put(tid, record);
+        for (ObjectVN object : deps) {
+            if (record.done.get()) {
+                // transaction has been ejected or deleted
+                break;
+            }
+            long version = store.getVersion(object.oid);
+            if (version > object.vnum) {
+                //Version Conflict
+                abortVC(record);
+                break;
+            }
+            register(depsMap, object, record);
+            if (version < object.vnum) {
+                record.unresolved.incrementAndGet();
+                register(unresolveddepsMap, object, record);
+                // The object may have been committed before the record was
+                // registered, in which case nobody else will resolve it.
+                if (store.getVersion(object.oid) >= object.vnum && unregister(unresolveddepsMap, object, record)) {
+                    record.unresolved.decrementAndGet();
+                }
+            }
+            // Likewise, a newer version may have ejected the dependents
+            // before the record was registered.
+            if (store.getVersion(object.oid) > object.vnum) {
+                abortVC(record);
+                break;
+            }
+        }
+        release(record, 1);
+        if (timeout > 0 && !record.done.get()) {
+            record.timeout = timer.schedule(timeout, () -> expire(record));
+            // finished while it was being scheduled
+            if (record.done.get()) {
+                record.timeout.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void remove(ObjectVN object) {
+        eject(object);
+        Set<TxnRecord> waiters = unresolveddepsMap.remove(object);
+        if (waiters != null) {
+            for (TxnRecord record : waiters) {
+                release(record, 1);
+            }
+        }
+    }
+
+    @Override
+    public void eject(ObjectVN object) {
+        Set<TxnRecord> stale = depsMap.remove(new ObjectVN(object.oid, object.vnum - 1));
+        if (stale != null) {
+            for (TxnRecord record : stale) {
+                abortVC(record);
+            }
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<ObjectVN> objects) {
+        ejectAll(objects);
+        // Count the dependencies each waiting transaction gets resolved
+        HashMap<TxnRecord, Integer> resolved = new HashMap<>();
+        for (ObjectVN object : objects) {
+            Set<TxnRecord> waiters = unresolveddepsMap.remove(object);
+            if (waiters != null) {
+                for (TxnRecord record : waiters) {
+                    resolved.merge(record, 1, Integer::sum);
+                }
+            }
+        }
+        resolved.forEach(this::release);
+    }
+
+    @Override
+    public void ejectAll(Collection<ObjectVN> objects) {
+        for (ObjectVN object : objects) {
+            eject(object);
+        }
+    }
+
+    @Override
+    public void cancelAll(Collection<ObjectVN> objects) {
+        for (ObjectVN object : objects) {
+            Set<TxnRecord> waiters = unresolveddepsMap.remove(object);
+            if (waiters != null) {
+                for (TxnRecord record : waiters) {
+                    if (finish(record)) {
+                        num_cascade.increment();
+                        record.listener.onResolve(record.tid, false, Reason.WriterAborted);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void delete(long tid) {
+        TxnRecord record = records.get(tid);
+        if (record != null && finish(record)) {
+            record.listener.onResolve(tid, false, Reason.Deleted);
+        }
+    }
+
+    @Override
+    public void setStore(Store store) {
+        this.store = store;
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        this.defaultTimeout = timeout;
+    }
+
+    @Override
+    public void setResolver(Executor resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public Latency getResolveLatency() {
+        return resolveLatency;
+    }
+
+    @Override
+    public int getNumLink() {
+        return records.size();
+    }
+
+    @Override
+    public int getNumResolve() {
+        return (int) num_resolve.sum();
+    }
+
+    @Override
+    public int getNumAbortLock() {
+        return (int) num_abort_lock.sum();
+    }
+
+    @Override
+    public int getNumAbortVC() {
+        return (int) num_abort_vc.sum();
+    }
+
+    @Override
+    public int getNumCascade() {
+        return (int) num_cascade.sum();
+    }
+
+    @Override
+    public int getNumTimeout() {
+        return (int) num_timeout.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Buffer resolved %d txns, aborted %d txns because of a lock conflict, %d txns because of a version conflict, %d txns because of a timeout",
+                num_resolve.sum(), num_abort_lock.sum(), num_abort_vc.sum(), num_timeout.sum()
+        );
+    }
+}
@@ -0,0 +1,44 @@
+package smartbuffer;
+
+/**
+ * A fixed number of monitors that IDs are hashed onto. Used in place of a
+ * table with one lock per ID, which would grow with every ID ever seen.
+ *
+ * Two IDs may share a monitor, so callers must never hold the monitors of two
+ * IDs from the same stripes at once.
+ */
+class LockStripes {
+    private final Object[] stripes;
+
+    private final int mask;
+
+    /**
+     * Create a new set of stripes.
+     *
+     * @param size The number of monitors. Rounded up to a power of two.
+     */
+    LockStripes(int size) {
+        int n = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        stripes = new Object[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Object();
+        }
+        mask = n - 1;
+    }
+
+    /**
+     * Return the monitor of an ID.
+     *
+     * @param id The ID.
+     * @return The monitor that guards {@code id}.
+     */
+    Object get(long id) {
+        // IDs are often sequential or share low bits (tids end in the worker
+        // ID), so spread them before masking.
+        return stripes[(int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask];
+    }
+
+    int size() {
+        return stripes.length;
+    }
+}
@@ -1,111 +1,199 @@
 package smartbuffer;
 
+import benchmark.Latency;
+import smartbuffer.ResolutionListener.Reason;
 import util.ObjectVN;
 import util.Store;
-import util.Util;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 
 public class NumLinkBuffer implements SmartBuffer {
     /*
-     * A map from the object to transaction IDs that depend on the object.
+     * The number of object and transaction monitors in each buffer.
      */
-    private HashMap<ObjectVN, HashSet<Long>> depsMap;
-    
+    private static final int LOCK_STRIPES = 1024;
+
     /*
-     * A map from the object to transaction IDS that depend on the object and that the dependency is not resolved.
+     * A map from oid to transaction IDs that depend on the object, split by
+     * version. Each entry is guarded by the object lock of its oid.
      */
-    private HashMap<ObjectVN, HashSet<Long>> unresolveddepsMap;
+    private ConcurrentHashMap<Long, ObjectDeps> depsMap;
 
     /*
      * A map from a transaction ID to the number of unresolved dependencies.
-     * The keys are synchronized with {@code futures}.
+     * The keys are synchronized with {@code listeners}. Each entry is guarded
+     * by the transaction lock of its tid; transactions on different stripes
+     * update the map at once, so it must be concurrent.
      */
-    private HashMap<Long, Integer> numLink;
+    private ConcurrentHashMap<Long, Integer> numLink;
     
     /*
-     * A map from oid to the associated lock.
+     * Monitors guarding the objects, striped by oid.
      */
-    private ConcurrentHashMap<Long, Lock> objlocktable;
-    
+    private LockStripes objlocktable;
+
     /*
-     * A map from tid to the associated lock
+     * Monitors guarding the transactions, striped by tid. Striping keeps no
+     * state per transaction, so nothing needs to be reclaimed when a
+     * transaction leaves the buffer.
      */
-    private ConcurrentHashMap<Long, Lock> txnlocktable;
+    private LockStripes txnlocktable;
     
     /*
-     * A map from transactions in the buffer to associated futures to be filled.
+     * A map from transactions in the buffer to associated listeners to be notified.
      * The keys are synchronized with {@code getNumLink}.
      */
-    private HashMap<Long, CompletableFuture<Boolean>> futures;
+    private ConcurrentHashMap<Long, ResolutionListener> listeners;
     
     /*
      * A pointer to the store that the buffer is associated with.
      */
     public Store store;
 
-    private int num_abort_lock;
-    private int num_abort_vc;
-    private int num_resolve;
+    /*
+     * The executor that grabs locks for transactions leaving the buffer.
+     */
+    private Executor resolver;
+
+    private Latency resolveLatency;
+
+    /*
+     * Ejects transactions that wait for longer than their timeout.
+     */
+    private TimingWheel timer;
+
+    /*
+     * The timeout of each transaction in the buffer that has one, cancelled
+     * when it leaves so the wheel does not keep it until its deadline.
+     */
+    private ConcurrentHashMap<Long, TimingWheel.Entry> timeouts;
+
+    /*
+     * The timeout of transactions added without one, 0 for none.
+     */
+    private long defaultTimeout;
+
+    private LongAdder num_abort_lock;
+    private LongAdder num_abort_vc;
+    private LongAdder num_resolve;
+    private LongAdder num_timeout;
+    private LongAdder num_cascade;
     
     
     public NumLinkBuffer() {
         // TODO: decide the implementation we want to use
         // Look at performance considerations, as well as whether we care about value ordering or not
-        depsMap = new HashMap<>();
-        unresolveddepsMap = new HashMap<>();
-        numLink = new HashMap<>();
-        objlocktable = new ConcurrentHashMap<>();
-        txnlocktable = new ConcurrentHashMap<>();
-        futures = new HashMap<>();
+        depsMap = new ConcurrentHashMap<>();
+        numLink = new ConcurrentHashMap<>();
+        objlocktable = new LockStripes(LOCK_STRIPES);
+        txnlocktable = new LockStripes(LOCK_STRIPES);
+        listeners = new ConcurrentHashMap<>();
+        resolver = Runnable::run;
+        resolveLatency = new Latency();
+        timer = new TimingWheel();
+        timeouts = new ConcurrentHashMap<>();
+        defaultTimeout = 0;
 
-        num_abort_lock = 0;
-        num_abort_vc = 0;
-        num_resolve = 0;
+        num_abort_lock = new LongAdder();
+        num_abort_vc = new LongAdder();
+        num_timeout = new LongAdder();
+        num_cascade = new LongAdder();
+        num_resolve = new LongAdder();
     }
     
-    private Lock getObjLock(Long oid) {
-        Lock lock = new ReentrantLock();
-        Lock existing = objlocktable.putIfAbsent(oid, lock);
-        return existing == null? lock : existing;
+    private Object getObjLock(long oid) {
+        return objlocktable.get(oid);
     }
     
-    private Lock getTxnLock(Long tid) {
-        Lock lock = new ReentrantLock();
-        Lock existing = txnlocktable.putIfAbsent(tid, lock);
-        return existing == null? lock : existing;
+    private Object getTxnLock(long tid) {
+        return txnlocktable.get(tid);
+    }
+
+    /*
+     * Return the dependents of object [oid]. Must be called with the object
+     * lock of [oid] held.
+     */
+    private ObjectDeps getDeps(long oid) {
+        return depsMap.computeIfAbsent(oid, k -> new ObjectDeps());
+    }
+
+    /*
+     * Take transaction [tid] out of the buffer and cancel its timeout. Must
+     * be called with the transaction lock of [tid] held.
+     */
+    private void leave(long tid) {
+        numLink.remove(tid);
+        TimingWheel.Entry timeout = timeouts.remove(tid);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /*
+     * Eject transactions [tids] from the buffer because of a version conflict.
+     */
+    private void ejectTxns(Set<Long> tids) {
+        for (long tid : tids) {
+            synchronized (getTxnLock(tid)) {
+                if (numLink.containsKey(tid)) {
+                    leave(tid);
+                    num_abort_vc.increment();
+                    listeners.remove(tid).onResolve(tid, false, Reason.VersionConflict);
+                }
+            }
+        }
+    }
+
+    /*
+     * Grab the locks of transaction [tid], which has no unresolved
+     * dependencies left, and notify [listener]. Runs on the resolver.
+     */
+    private void resolve(long tid, ResolutionListener listener) {
+        long ready = System.nanoTime();
+        resolver.execute(() -> {
+            boolean res = store.grabLock(tid);
+            if (!res) {
+                num_abort_lock.increment();
+            } else {
+                num_resolve.increment();
+            }
+            resolveLatency.record(System.nanoTime() - ready);
+            listener.onResolve(tid, res, res ? Reason.Prepared : Reason.LockConflict);
+        });
+    }
+
+    @Override
+    public void add(long tid, Set<ObjectVN> deps, ResolutionListener listener) {
+        add(tid, deps, defaultTimeout, listener);
     }
 
     @Override
     //TODO : Check whether holding 1 objlock and 1 txnlock causes deadlock.
-    public synchronized Future<Boolean> add(long tid, Set<ObjectVN> deps) {
-        CompletableFuture<Boolean> future = new CompletableFuture<>();
+    public synchronized void add(long tid, Set<ObjectVN> deps, long timeout, ResolutionListener listener) {
         synchronized (getTxnLock(tid)) {
             numLink.put(tid, 0);
-            futures.put(tid, future);
+            listeners.put(tid, listener);
         }
         for (ObjectVN object : deps) {
             synchronized (getObjLock(object.oid)) {
                 if (store.getVersion(object.oid) > object.vnum) {
                     //Version Conflict
                     synchronized (getTxnLock(tid)){
-                        numLink.remove(tid);
-                        futures.remove(tid);
-                        future.complete(false);
-                        num_abort_vc++;
-                        return future;
+                        leave(tid);
+                        listeners.remove(tid);
+                        num_abort_vc.increment();
+                        listener.onResolve(tid, false, Reason.VersionConflict);
+                        return;
                     }
                 } else if (store.getVersion(object.oid) < object.vnum) {
-                    Util.addToSetMap(unresolveddepsMap, object, tid);
-                    Util.addToSetMap(depsMap, object, tid);
+                    ejectTxns(getDeps(object.oid).add(object.vnum, tid, true));
                     synchronized (getTxnLock(tid)) {
                         //if the transaction is not aborted
                         if (numLink.containsKey(tid)) {
@@ -115,92 +203,153 @@ public class NumLinkBuffer implements SmartBuffer {
                         }
                     }
                 } else {
-                    Util.addToSetMap(depsMap, object, tid);
+                    ejectTxns(getDeps(object.oid).add(object.vnum, tid, false));
                 }
             }
         }
         synchronized (getTxnLock(tid)) {
             if (numLink.containsKey(tid)) {
                 if (numLink.get(tid) == 0) {
-                    numLink.remove(tid);
-                    boolean res = store.grabLock(tid);
-                    if (!res) {
-                        num_abort_lock++;
-                    } else {
-                        num_resolve++;
-                    }
-                    future.complete(res);
-                } else {
-                    futures.put(tid, future);
+                    leave(tid);
+                    listeners.remove(tid);
+                    resolve(tid, listener);
+                } else if (timeout > 0) {
+                    timeouts.put(tid, timer.schedule(timeout, () -> expire(tid)));
                 }
             }
         }
-        return future;
     }
 
     @Override
     public void remove(ObjectVN object) {
         eject(object);
         synchronized (getObjLock(object.oid)) {
-            //If the current version of object is not ejected from the buffer
-            if (unresolveddepsMap.containsKey(object)) {
-                for (long tid : unresolveddepsMap.get(object)) {
-                    //If [tid] is not ejected from the buffer
-                    synchronized (getTxnLock(tid)) {
-                        if (numLink.containsKey(tid)) {
-                            numLink.put(tid, numLink.get(tid) - 1);
-                            if (numLink.get(tid) == 0) {
-                                numLink.remove(tid);
-                                boolean res = store.grabLock(tid);
-                                if (!res) {
-                                    num_abort_lock++;
-                                } else {
-                                    num_resolve++;
-                                }
-                                futures.get(tid).complete(res);
-                                futures.remove(tid);
-                            }
+            ObjectDeps objdeps = depsMap.get(object.oid);
+            if (objdeps == null) {
+                return;
+            }
+            for (long tid : objdeps.resolve(object.vnum)) {
+                //If [tid] is not ejected from the buffer
+                synchronized (getTxnLock(tid)) {
+                    if (numLink.containsKey(tid)) {
+                        numLink.put(tid, numLink.get(tid) - 1);
+                        if (numLink.get(tid) == 0) {
+                            leave(tid);
+                            resolve(tid, listeners.remove(tid));
                         }
                     }
                 }
-                unresolveddepsMap.remove(object);
             }
         }
     }
 
     @Override
-    public synchronized void eject(ObjectVN object) {
+    public void eject(ObjectVN object) {
         synchronized (getObjLock(object.oid)) {
-            LinkedList<ObjectVN> to_remove = new LinkedList<>();
-            for (ObjectVN object_curr : depsMap.keySet()) {
-                if (object_curr.older(object)) {
-                    for (long tid : depsMap.get(object_curr)) {
-                        synchronized(getTxnLock(tid)) {
-                            if (numLink.containsKey(tid)) {
-                                numLink.remove(tid);
-                                futures.get(tid).complete(false);
-                                num_abort_vc++;
-                                futures.remove(tid);
-                            }
-                        }
+            ObjectDeps objdeps = depsMap.get(object.oid);
+            if (objdeps != null) {
+                ejectTxns(objdeps.eject(object.vnum));
+                if (objdeps.isEmpty()) {
+                    depsMap.remove(object.oid);
+                }
+            }
+        }
+    }
+    
+    /*
+     * Eject transaction [tid] if it is still waiting in the buffer.
+     */
+    private void expire(long tid) {
+        synchronized (getTxnLock(tid)) {
+            if (numLink.containsKey(tid)) {
+                leave(tid);
+                num_timeout.increment();
+                listeners.remove(tid).onResolve(tid, false, Reason.Timeout);
+            }
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<ObjectVN> objects) {
+        ejectAll(objects);
+        // Count the dependencies each waiting transaction gets resolved
+        HashMap<Long, Integer> resolved = new HashMap<>();
+        for (ObjectVN object : objects) {
+            synchronized (getObjLock(object.oid)) {
+                ObjectDeps objdeps = depsMap.get(object.oid);
+                if (objdeps != null) {
+                    for (long tid : objdeps.resolve(object.vnum)) {
+                        resolved.merge(tid, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Long, Integer> entry : resolved.entrySet()) {
+            long tid = entry.getKey();
+            //If [tid] is not ejected from the buffer
+            synchronized (getTxnLock(tid)) {
+                if (numLink.containsKey(tid)) {
+                    int left = numLink.get(tid) - entry.getValue();
+                    if (left == 0) {
+                        leave(tid);
+                        resolve(tid, listeners.remove(tid));
+                    } else {
+                        numLink.put(tid, left);
                     }
-                    to_remove.add(object_curr);
-                    unresolveddepsMap.remove(object_curr);
                 }
             }
-            for (ObjectVN object_curr : to_remove) {
-                depsMap.remove(object_curr);
+        }
+    }
+
+    @Override
+    public void ejectAll(Collection<ObjectVN> objects) {
+        Set<Long> stale = new HashSet<>();
+        for (ObjectVN object : objects) {
+            synchronized (getObjLock(object.oid)) {
+                ObjectDeps objdeps = depsMap.get(object.oid);
+                if (objdeps != null) {
+                    stale.addAll(objdeps.eject(object.vnum));
+                    if (objdeps.isEmpty()) {
+                        depsMap.remove(object.oid);
+                    }
+                }
             }
         }
+        ejectTxns(stale);
     }
-    
+
+    @Override
+    public void cancelAll(Collection<ObjectVN> objects) {
+        Set<Long> waiting = new HashSet<>();
+        for (ObjectVN object : objects) {
+            synchronized (getObjLock(object.oid)) {
+                ObjectDeps objdeps = depsMap.get(object.oid);
+                if (objdeps != null) {
+                    waiting.addAll(objdeps.cancel(object.vnum));
+                    if (objdeps.isEmpty()) {
+                        depsMap.remove(object.oid);
+                    }
+                }
+            }
+        }
+        for (long tid : waiting) {
+            synchronized (getTxnLock(tid)) {
+                if (numLink.containsKey(tid)) {
+                    leave(tid);
+                    num_cascade.increment();
+                    listeners.remove(tid).onResolve(tid, false, Reason.WriterAborted);
+                }
+            }
+        }
+    }
+
     @Override
     public void delete(long tid) {
         // TODO: check if tid is in the map
         synchronized (getTxnLock(tid)) {
-            numLink.remove(tid);
-            if (futures.containsKey(tid)){
-                futures.remove(tid).complete(false);
+            leave(tid);
+            if (listeners.containsKey(tid)){
+                listeners.remove(tid).onResolve(tid, false, Reason.Deleted);
             }
         }
     }
@@ -210,6 +359,21 @@ public class NumLinkBuffer implements SmartBuffer {
         this.store = store;
     }
 
+    @Override
+    public void setTimeout(long timeout) {
+        this.defaultTimeout = timeout;
+    }
+
+    @Override
+    public void setResolver(Executor resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public Latency getResolveLatency() {
+        return resolveLatency;
+    }
+
     @Override
     public int getNumLink(){
         return numLink.size();
@@ -217,24 +381,34 @@ public class NumLinkBuffer implements SmartBuffer {
 
     @Override
     public int getNumResolve() {
-        return num_resolve;
+        return (int) num_resolve.sum();
     }
 
     @Override
     public int getNumAbortLock() {
-        return num_abort_lock;
+        return (int) num_abort_lock.sum();
     }
 
     @Override
     public int getNumAbortVC() {
-        return num_abort_vc;
+        return (int) num_abort_vc.sum();
+    }
+
+    @Override
+    public int getNumCascade() {
+        return (int) num_cascade.sum();
+    }
+
+    @Override
+    public int getNumTimeout() {
+        return (int) num_timeout.sum();
     }
 
     @Override
     public String toString() {
         return String.format(
-                "Buffer resolved %d txns, aborted %d txns because of a lock conflict, %d txns because of a version conflict",
-                num_resolve, num_abort_lock, num_abort_vc
+                "Buffer resolved %d txns, aborted %d txns because of a lock conflict, %d txns because of a version conflict, %d txns because of a timeout",
+                num_resolve.sum(), num_abort_lock.sum(), num_abort_vc.sum(), num_timeout.sum()
         );
     }
 }
@@ -0,0 +1,136 @@
+package smartbuffer;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The transactions in a buffer that depend on one object.
+ *
+ * Buffered transactions can only depend on the current version v of an object
+ * or on the next version v+1, so dependents are kept in two slots indexed by
+ * the parity of the version number instead of one entry per version.
+ *
+ * This class is not thread-safe. Callers guard it with the lock of the object.
+ */
+class ObjectDeps {
+    private static class Slot {
+        /*
+         * The version number the transactions in this slot depend on.
+         */
+        final long vnum;
+
+        /*
+         * Transactions that depend on this version.
+         */
+        HashSet<Long> deps;
+
+        /*
+         * Transactions that depend on this version and that the dependency is
+         * not resolved.
+         */
+        HashSet<Long> unresolved;
+
+        Slot(long vnum) {
+            this.vnum = vnum;
+            this.deps = new HashSet<>();
+            this.unresolved = new HashSet<>();
+        }
+    }
+
+    private final Slot[] slots = new Slot[2];
+
+    /**
+     * Record that a transaction depends on a version of the object.
+     *
+     * If the slot for the version holds a version two or more apart, the
+     * older of the two can no longer be resolved and its dependents are
+     * returned so the caller can eject them. This can only happen if the
+     * v / v+1 invariant is broken.
+     *
+     * @param vnum The version number.
+     * @param tid The ID of the transaction.
+     * @param unresolved Whether the dependency is unresolved.
+     * @return The transactions to eject, usually none.
+     */
+    Set<Long> add(long vnum, long tid, boolean unresolved) {
+        int i = (int) (vnum & 1);
+        Set<Long> stale = Collections.emptySet();
+        if (slots[i] != null && slots[i].vnum != vnum) {
+            if (slots[i].vnum > vnum) {
+                return Collections.singleton(tid);
+            }
+            stale = slots[i].deps;
+            slots[i] = null;
+        }
+        if (slots[i] == null) {
+            slots[i] = new Slot(vnum);
+        }
+        slots[i].deps.add(tid);
+        if (unresolved) {
+            slots[i].unresolved.add(tid);
+        }
+        return stale;
+    }
+
+    /**
+     * Resolve a version of the object.
+     *
+     * @param vnum The version number.
+     * @return The transactions whose dependency on the version was unresolved.
+     */
+    Set<Long> resolve(long vnum) {
+        Slot slot = slots[(int) (vnum & 1)];
+        if (slot == null || slot.vnum != vnum || slot.unresolved.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<Long> res = slot.unresolved;
+        slot.unresolved = new HashSet<>();
+        return res;
+    }
+
+    /**
+     * Drop every version older than a given version.
+     *
+     * @param vnum The version number.
+     * @return The transactions that depended on an older version.
+     */
+    Set<Long> eject(long vnum) {
+        Set<Long> res = Collections.emptySet();
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null && slots[i].vnum < vnum) {
+                if (res.isEmpty()) {
+                    res = slots[i].deps;
+                } else {
+                    res = new HashSet<>(res);
+                    res.addAll(slots[i].deps);
+                }
+                slots[i] = null;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Drop a version of the object that will never be created.
+     *
+     * @param vnum The version number.
+     * @return The transactions still waiting for the version.
+     */
+    Set<Long> cancel(long vnum) {
+        int i = (int) (vnum & 1);
+        Slot slot = slots[i];
+        if (slot == null || slot.vnum != vnum) {
+            return Collections.emptySet();
+        }
+        slots[i] = null;
+        return slot.unresolved;
+    }
+
+    /**
+     * @return {@code true} iff no transaction depends on the object.
+     */
+    boolean isEmpty() {
+        return slots[0] == null && slots[1] == null;
+    }
+}
@@ -0,0 +1,68 @@
+package smartbuffer;
+
+/**
+ * A callback that is notified once when a transaction submitted to a buffer
+ * or a store is resolved, that is, either prepared or rejected.
+ *
+ * The listener may be called on any thread, including while the buffer holds
+ * some of its internal locks, so it should return quickly and not block.
+ */
+@FunctionalInterface
+public interface ResolutionListener {
+    /**
+     * The reason a transaction was resolved.
+     */
+    enum Reason {
+        /*
+         * All dependencies are resolved and all locks were grabbed.
+         */
+        Prepared,
+
+        /*
+         * Some lock could not be grabbed.
+         */
+        LockConflict,
+
+        /*
+         * The transaction read an object that has a newer version.
+         */
+        VersionConflict,
+
+        /*
+         * The transaction has unresolved dependencies and the store runs
+         * without a buffer.
+         */
+        Unresolved,
+
+        /*
+         * The transaction was removed from the buffer, e.g. because it aborted.
+         */
+        Deleted,
+
+        /*
+         * The transaction waited in the buffer for longer than its timeout.
+         */
+        Timeout,
+
+        /*
+         * The buffer was full and the admission policy turned the transaction
+         * away.
+         */
+        Rejected,
+
+        /*
+         * The transaction waited for a version written by a transaction that
+         * aborted, so the version will never be created.
+         */
+        WriterAborted
+    }
+
+    /**
+     * Notify that a transaction is resolved.
+     *
+     * @param tid The ID of the transaction.
+     * @param outcome {@code true} iff the transaction prepared successfully.
+     * @param reason The reason for the outcome.
+     */
+    void onResolve(long tid, boolean outcome, Reason reason);
+}
@@ -0,0 +1,497 @@
+package smartbuffer;
+
+import benchmark.Latency;
+import smartbuffer.ResolutionListener.Reason;
+import util.ObjectVN;
+import util.Store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link SmartBuffer} that partitions the dependency index by oid across a
+ * fixed number of shards. Each shard's index is owned by a single thread that
+ * applies add, remove and eject events for its objects in the order they were
+ * submitted, so the index needs no locks and threads working on different
+ * objects do not contend.
+ *
+ * A transaction whose dependencies span several shards keeps one atomic count
+ * of unresolved dependencies that every shard adds to and releases from. The
+ * count holds one extra unit for each shard until that shard has indexed its
+ * part of the transaction, so it cannot drop to zero early.
+ *
+ * Events are applied asynchronously: {@code add}, {@code remove} and
+ * {@code eject} return before the shards have processed them, and listeners
+ * are notified on shard threads unless a resolver is set.
+ */
+public class ShardedBuffer implements SmartBuffer {
+    /*
+     * A transaction in the buffer.
+     */
+    private static class TxnRecord {
+        final long tid;
+
+        /*
+         * The number of unresolved dependencies, plus one for each shard that
+         * has not indexed its part of the transaction yet and one while the
+         * transaction is still being added to the buffer.
+         */
+        final AtomicInteger unresolved;
+
+        /*
+         * Set exactly once, by whoever resolves, ejects or deletes the
+         * transaction.
+         */
+        final AtomicBoolean done;
+
+        /*
+         * The timeout of the transaction, if it has one, cancelled once it
+         * is done.
+         */
+        volatile TimingWheel.Entry timeout;
+
+        final ResolutionListener listener;
+
+        TxnRecord(long tid, int shards, ResolutionListener listener) {
+            this.tid = tid;
+            this.unresolved = new AtomicInteger(shards + 1);
+            this.done = new AtomicBoolean(false);
+            this.listener = listener;
+        }
+    }
+
+    /*
+     * The part of the dependency index for the objects hashed onto one shard.
+     */
+    private class Shard {
+        /*
+         * A map from oid to transaction IDs that depend on the object. Only
+         * accessed by the shard thread.
+         */
+        final HashMap<Long, ObjectDeps> depsMap;
+
+        /*
+         * The single thread that owns {@code depsMap}.
+         */
+        final ExecutorService thread;
+
+        Shard(int index) {
+            depsMap = new HashMap<>();
+            thread = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "buffer-shard-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        /*
+         * Index the dependencies [objects] of [record], then release the
+         * unit the record holds for this shard.
+         */
+        void add(TxnRecord record, List<ObjectVN> objects) {
+            int count = 0;
+            for (ObjectVN object : objects) {
+                if (record.done.get()) {
+                    // transaction has been ejected or deleted
+                    break;
+                }
+                long version = store.getVersion(object.oid);
+                if (version > object.vnum) {
+                    //Version Conflict
+                    abortVC(record);
+                    break;
+                }
+                boolean unresolved = version < object.vnum;
+                if (unresolved) {
+                    count++;
+                }
+                ObjectDeps objdeps = depsMap.computeIfAbsent(object.oid, k -> new ObjectDeps());
+                ejectTxns(objdeps.add(object.vnum, record.tid, unresolved));
+            }
+            // Committed versions are resolved by events queued after the
+            // store updated them, so no dependency can be missed here.
+            release(record, 1 - count);
+        }
+
+        /*
+         * Eject the dependents of versions older than [objects], then resolve
+         * the dependents of [objects].
+         */
+        void removeAll(List<ObjectVN> objects) {
+            ejectAll(objects);
+            // Count the dependencies each waiting transaction gets resolved
+            HashMap<Long, Integer> resolved = new HashMap<>();
+            for (ObjectVN object : objects) {
+                ObjectDeps objdeps = depsMap.get(object.oid);
+                if (objdeps != null) {
+                    for (long tid : objdeps.resolve(object.vnum)) {
+                        resolved.merge(tid, 1, Integer::sum);
+                    }
+                }
+            }
+            for (Map.Entry<Long, Integer> entry : resolved.entrySet()) {
+                TxnRecord record = records.get(entry.getKey());
+                if (record != null) {
+                    release(record, entry.getValue());
+                }
+            }
+        }
+
+        /*
+         * Eject the transactions waiting for versions [objects], which will
+         * never be created.
+         */
+        void cancelAll(List<ObjectVN> objects) {
+            for (ObjectVN object : objects) {
+                ObjectDeps objdeps = depsMap.get(object.oid);
+                if (objdeps != null) {
+                    for (long tid : objdeps.cancel(object.vnum)) {
+                        TxnRecord record = records.get(tid);
+                        if (record != null && finish(record)) {
+                            num_cascade.increment();
+                            record.listener.onResolve(tid, false, Reason.WriterAborted);
+                        }
+                    }
+                    if (objdeps.isEmpty()) {
+                        depsMap.remove(object.oid);
+                    }
+                }
+            }
+        }
+
+        /*
+         * Eject the dependents of versions older than [objects].
+         */
+        void ejectAll(List<ObjectVN> objects) {
+            for (ObjectVN object : objects) {
+                ObjectDeps objdeps = depsMap.get(object.oid);
+                if (objdeps != null) {
+                    ejectTxns(objdeps.eject(object.vnum));
+                    if (objdeps.isEmpty()) {
+                        depsMap.remove(object.oid);
+                    }
+                }
+            }
+        }
+    }
+
+    private final Shard[] shards;
+
+    private final int mask;
+
+    /*
+     * A map from tid to the record of transactions in the buffer.
+     */
+    private ConcurrentHashMap<Long, TxnRecord> records;
+
+    /*
+     * A pointer to the store that the buffer is associated with.
+     */
+    public Store store;
+
+    /*
+     * The executor that grabs locks for transactions leaving the buffer.
+     */
+    private Executor resolver;
+
+    private Latency resolveLatency;
+
+    /*
+     * Ejects transactions that wait for longer than their timeout.
+     */
+    private TimingWheel timer;
+
+    /*
+     * The timeout of transactions added without one, 0 for none.
+     */
+    private long defaultTimeout;
+
+    private LongAdder num_abort_lock;
+    private LongAdder num_abort_vc;
+    private LongAdder num_resolve;
+    private LongAdder num_timeout;
+    private LongAdder num_cascade;
+
+    /**
+     * Create a new buffer with one shard per available processor.
+     */
+    public ShardedBuffer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new buffer.
+     *
+     * @param numShards The number of shards. Rounded up to a power of two.
+     */
+    public ShardedBuffer(int numShards) {
+        int n = Integer.highestOneBit(Math.max(1, numShards - 1)) << 1;
+        shards = new Shard[n];
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Shard(i);
+        }
+        mask = n - 1;
+        records = new ConcurrentHashMap<>();
+        resolver = Runnable::run;
+        resolveLatency = new Latency();
+        timer = new TimingWheel();
+        defaultTimeout = 0;
+
+        num_abort_lock = new LongAdder();
+        num_abort_vc = new LongAdder();
+        num_resolve = new LongAdder();
+        num_timeout = new LongAdder();
+        num_cascade = new LongAdder();
+    }
+
+    /*
+     * Return the index of the shard that owns object [oid].
+     */
+    private int shardOf(long oid) {
+        // oids are sequential, so spread them before masking
+        return (int) ((oid * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /*
+     * Split [objects] by the shard that owns them. Shards with no objects are
+     * left null.
+     */
+    private List<ObjectVN>[] partition(Collection<ObjectVN> objects) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<ObjectVN>[] parts = new List[shards.length];
+        for (ObjectVN object : objects) {
+            int i = shardOf(object.oid);
+            if (parts[i] == null) {
+                parts[i] = new ArrayList<>();
+            }
+            parts[i].add(object);
+        }
+        return parts;
+    }
+
+    /*
+     * Take [record] out of the buffer. Return true iff the caller is the one
+     * that completes the transaction. Index entries of the transaction are
+     * left for the shards to drop once its versions are resolved or ejected.
+     */
+    private boolean finish(TxnRecord record) {
+        if (!record.done.compareAndSet(false, true)) {
+            return false;
+        }
+        records.remove(record.tid, record);
+        TimingWheel.Entry timeout = record.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        return true;
+    }
+
+    /*
+     * Drop [record] because of a version conflict.
+     */
+    private void abortVC(TxnRecord record) {
+        if (finish(record)) {
+            num_abort_vc.increment();
+            record.listener.onResolve(record.tid, false, Reason.VersionConflict);
+        }
+    }
+
+    /*
+     * Eject transactions [tids] from the buffer because of a version conflict.
+     */
+    private void ejectTxns(Set<Long> tids) {
+        for (long tid : tids) {
+            TxnRecord record = records.get(tid);
+            if (record != null) {
+                abortVC(record);
+            }
+        }
+    }
+
+    /*
+     * Resolve [count] dependencies of [record], handing the transaction to
+     * the resolver to grab its locks if they were the last ones.
+     */
+    private void release(TxnRecord record, int count) {
+        if (record.unresolved.addAndGet(-count) == 0 && finish(record)) {
+            long ready = System.nanoTime();
+            resolver.execute(() -> {
+                boolean res = store.grabLock(record.tid);
+                if (!res) {
+                    num_abort_lock.increment();
+                } else {
+                    num_resolve.increment();
+                }
+                resolveLatency.record(System.nanoTime() - ready);
+                record.listener.onResolve(record.tid, res, res ? Reason.Prepared : Reason.LockConflict);
+            });
+        }
+    }
+
+    /*
+     * Eject [record] if it is still waiting in the buffer.
+     */
+    private void expire(TxnRecord record) {
+        if (finish(record)) {
+            num_timeout.increment();
+            record.listener.onResolve(record.tid, false, Reason.Timeout);
+        }
+    }
+
+    @Override
+    public void add(long tid, Set<ObjectVN> deps, ResolutionListener listener) {
+        add(tid, deps, defaultTimeout, listener);
+    }
+
+    @Override
+    public void add(long tid, Set<ObjectVN> deps, long timeout, ResolutionListener listener) {
+        List<ObjectVN>[] parts = partition(deps);
+        int spanned = 0;
+        for (List<ObjectVN> part : parts) {
+            if (part != null) {
+                spanned++;
+            }
+        }
+        TxnRecord record = new TxnRecord(tid, spanned, listener);
+        records.put(tid, record);
+        for (int i = 0; i < parts.length; i++) {
+            List<ObjectVN> part = parts[i];
+            if (part != null) {
+                Shard shard = shards[i];
+                shard.thread.execute(() -> shard.add(record, part));
+            }
+        }
+        release(record, 1);
+        if (timeout > 0 && !record.done.get()) {
+            record.timeout = timer.schedule(timeout, () -> expire(record));
+            // finished while it was being scheduled
+            if (record.done.get()) {
+                record.timeout.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void remove(ObjectVN object) {
+        removeAll(Collections.singletonList(object));
+    }
+
+    @Override
+    public void eject(ObjectVN object) {
+        ejectAll(Collections.singletonList(object));
+    }
+
+    @Override
+    public void removeAll(Collection<ObjectVN> objects) {
+        List<ObjectVN>[] parts = partition(objects);
+        for (int i = 0; i < parts.length; i++) {
+            List<ObjectVN> part = parts[i];
+            if (part != null) {
+                Shard shard = shards[i];
+                shard.thread.execute(() -> shard.removeAll(part));
+            }
+        }
+    }
+
+    @Override
+    public void ejectAll(Collection<ObjectVN> objects) {
+        List<ObjectVN>[] parts = partition(objects);
+        for (int i = 0; i < parts.length; i++) {
+            List<ObjectVN> part = parts[i];
+            if (part != null) {
+                Shard shard = shards[i];
+                shard.thread.execute(() -> shard.ejectAll(part));
+            }
+        }
+    }
+
+    @Override
+    public void cancelAll(Collection<ObjectVN> objects) {
+        List<ObjectVN>[] parts = partition(objects);
+        for (int i = 0; i < parts.length; i++) {
+            List<ObjectVN> part = parts[i];
+            if (part != null) {
+                Shard shard = shards[i];
+                shard.thread.execute(() -> shard.cancelAll(part));
+            }
+        }
+    }
+
+    @Override
+    public void delete(long tid) {
+        TxnRecord record = records.get(tid);
+        if (record != null && finish(record)) {
+            record.listener.onResolve(tid, false, Reason.Deleted);
+        }
+    }
+
+    @Override
+    public void setStore(Store store) {
+        this.store = store;
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        this.defaultTimeout = timeout;
+    }
+
+    @Override
+    public void setResolver(Executor resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public Latency getResolveLatency() {
+        return resolveLatency;
+    }
+
+    @Override
+    public int getNumLink() {
+        return records.size();
+    }
+
+    @Override
+    public int getNumResolve() {
+        return (int) num_resolve.sum();
+    }
+
+    @Override
+    public int getNumAbortLock() {
+        return (int) num_abort_lock.sum();
+    }
+
+    @Override
+    public int getNumAbortVC() {
+        return (int) num_abort_vc.sum();
+    }
+
+    @Override
+    public int getNumCascade() {
+        return (int) num_cascade.sum();
+    }
+
+    @Override
+    public int getNumTimeout() {
+        return (int) num_timeout.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Buffer resolved %d txns, aborted %d txns because of a lock conflict, %d txns because of a version conflict, %d txns because of a timeout",
+                num_resolve.sum(), num_abort_lock.sum(), num_abort_vc.sum(), num_timeout.sum()
+        );
+    }
+}
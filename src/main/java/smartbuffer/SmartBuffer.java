@@ -1,19 +1,23 @@
 package smartbuffer;
 
+import benchmark.Latency;
 import util.ObjectVN;
 import util.Store;
 
+import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 
 public interface SmartBuffer {
     /**
-     * Add a transaction with a set of dependencies to the buffer. This method 
-     * will return a {@code Future} that resolves with {@code true} if the
-     * transaction prepares successfully, and {@code false} if there is
-     * something that prevents the transaction from being prepared such as a
-     * version conflict. A transaction is viewed as resolved if all of its
-     * dependencies are resolved.
+     * Add a transaction with a set of dependencies to the buffer. The listener
+     * will be notified with {@code true} if the transaction prepares
+     * successfully, and {@code false} if there is something that prevents the
+     * transaction from being prepared such as a version conflict. A
+     * transaction is viewed as resolved if all of its dependencies are
+     * resolved.
      *
      * Preconditions:
      *  - the store must be set via {@link SmartBuffer#setStore(Store)} before
@@ -25,16 +29,53 @@ public interface SmartBuffer {
      * @param deps A set of <i>all</i> of the transaction's dependencies. It is 
      *             important that resolved dependencies are also included, since 
      *             they may become unresolved at some point in the future.
+     * @param timeout The number of milliseconds the transaction may wait in
+     *                the buffer before it is ejected with
+     *                {@link ResolutionListener.Reason#Timeout}, or 0 to wait
+     *                indefinitely.
+     * @param listener The listener to notify exactly once when the transaction
+     *                 is resolved. It may be called before this method returns.
+     */
+    void add(long tid, Set<ObjectVN> deps, long timeout, ResolutionListener listener);
+
+    /**
+     * Add a transaction with a set of dependencies to the buffer, using the
+     * default timeout set via {@link SmartBuffer#setTimeout(long)}.
+     *
+     * See {@link SmartBuffer#add(long, Set, long, ResolutionListener)}.
+     *
+     * @param tid The ID of the transaction.
+     * @param deps A set of <i>all</i> of the transaction's dependencies.
+     * @param listener The listener to notify exactly once when the transaction
+     *                 is resolved.
+     */
+    void add(long tid, Set<ObjectVN> deps, ResolutionListener listener);
+
+    /**
+     * Add a transaction with a set of dependencies to the buffer. This method 
+     * will return a {@code Future} that resolves with {@code true} if the
+     * transaction prepares successfully, and {@code false} if there is
+     * something that prevents the transaction from being prepared such as a
+     * version conflict.
+     *
+     * See {@link SmartBuffer#add(long, Set, long, ResolutionListener)}.
+     *
+     * @param tid The ID of the transaction.
+     * @param deps A set of <i>all</i> of the transaction's dependencies.
      * @return A {@code Future} that resolves in accord with the transaction 
      *             dependency status.
      */
-    Future<Boolean> add(long tid, Set<ObjectVN> deps);
+    default Future<Boolean> add(long tid, Set<ObjectVN> deps) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        add(tid, deps, (t, outcome, reason) -> future.complete(outcome));
+        return future;
+    }
 
     /**
      * Remove a dependency from the dependencies of any transactions that rely 
      * on it. Any transactions that have no unresolved dependencies after this
-     * will have their corresponding futures resolved with {@code true} if any
-     * required locks can be successfully grabbed, and {@code false} otherwise.
+     * will have their listeners notified with {@code true} if any required
+     * locks can be successfully grabbed, and {@code false} otherwise.
      *
      * Note that the store must be set via {@link SmartBuffer#setStore(Store)}
      * before calling this method.
@@ -45,8 +86,8 @@ public interface SmartBuffer {
 
     /**
      * Eject transactions that have a version conflict with a given dependency. 
-     * These transactions will be dropped, and their corresponding futures will
-     * resolve with {@code false}.
+     * These transactions will be dropped, and their listeners will be notified
+     * with {@code false}.
      *
      * Note that the store must be set via {@link SmartBuffer#setStore(Store)}
      * before calling this method.
@@ -56,9 +97,47 @@ public interface SmartBuffer {
     void eject(ObjectVN object);
 
     /**
-     * Remove a transaction from the buffer. Note that this will make the
-     * future that was returned from adding the transaction resolve with
-     * {@code false}.
+     * Remove a set of dependencies at once, typically all the objects written
+     * by one commit. This is equivalent to calling
+     * {@link SmartBuffer#remove(ObjectVN)} for each of them, except that each
+     * waiting transaction is updated and checked once for the whole batch.
+     *
+     * Note that the store must be set via {@link SmartBuffer#setStore(Store)}
+     * before calling this method.
+     *
+     * @param objects The dependencies.
+     */
+    void removeAll(Collection<ObjectVN> objects);
+
+    /**
+     * Eject transactions that have a version conflict with any of a set of
+     * dependencies. Each ejected transaction is dropped once, however many of
+     * the dependencies it conflicts with.
+     *
+     * Note that the store must be set via {@link SmartBuffer#setStore(Store)}
+     * before calling this method.
+     *
+     * @param objects The dependencies.
+     */
+    void ejectAll(Collection<ObjectVN> objects);
+
+    /**
+     * Eject transactions waiting for versions that will never be created,
+     * typically the objects written by a transaction that aborted after it
+     * prepared. These transactions will be dropped, and their listeners will
+     * be notified with {@code false} and
+     * {@link ResolutionListener.Reason#WriterAborted}.
+     *
+     * Note that the store must be set via {@link SmartBuffer#setStore(Store)}
+     * before calling this method.
+     *
+     * @param objects The versions that will never be created.
+     */
+    void cancelAll(Collection<ObjectVN> objects);
+
+    /**
+     * Remove a transaction from the buffer. Note that this will notify the
+     * listener that was given when adding the transaction with {@code false}.
      *
      * Note that the store must be set via {@link SmartBuffer#setStore(Store)}
      * before calling this method.
@@ -69,7 +148,7 @@ public interface SmartBuffer {
 
     /**
      * Set the corresponding store for this buffer. Note that this method
-     * <b>must</b> be called before {@link SmartBuffer#add(long, Set)},
+     * <b>must</b> be called before {@link SmartBuffer#add(long, Set, long, ResolutionListener)},
      * {@link SmartBuffer#remove(ObjectVN)}, {@link SmartBuffer#eject(ObjectVN)}
      * and {@link SmartBuffer#delete(long)}.
      *
@@ -77,6 +156,32 @@ public interface SmartBuffer {
      */
     void setStore(Store store);
 
+    /**
+     * Set the executor that grabs the locks of transactions whose dependencies
+     * are all resolved and notifies their listeners. By default this runs
+     * inline, on the thread that resolved the last dependency, which is
+     * usually the thread committing a transaction in the store.
+     *
+     * @param resolver The executor to assign.
+     */
+    void setResolver(Executor resolver);
+
+    /**
+     * Set the default number of milliseconds a transaction may wait in the
+     * buffer before it is ejected, or 0 to wait indefinitely. The default is 0.
+     *
+     * @param timeout The timeout in milliseconds.
+     */
+    void setTimeout(long timeout);
+
+    /**
+     * Get the time from a transaction's last dependency being resolved until
+     * its listener is notified, including the time taken to grab its locks.
+     *
+     * @return The resolution latency.
+     */
+    Latency getResolveLatency();
+
     int getNumLink();
 
     int getNumResolve();
@@ -84,4 +189,8 @@ public interface SmartBuffer {
     int getNumAbortLock();
 
     int getNumAbortVC();
+
+    int getNumTimeout();
+
+    int getNumCascade();
 }
@@ -0,0 +1,153 @@
+package smartbuffer;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A hashed timing wheel that runs tasks after a delay. Scheduling a task is
+ * O(1) and takes no lock; a single daemon thread moves new tasks into the
+ * wheel and runs the expired ones once per tick, so tasks run up to one tick
+ * late and should be short.
+ *
+ * A task can be cancelled, which drops it and what it captures at the next
+ * tick rather than keeping it until its deadline. A task that is not
+ * cancelled in time may still run, so it should notice if what it times out
+ * has already finished and do nothing.
+ */
+class TimingWheel {
+    /**
+     * A scheduled task.
+     */
+    static final class Entry {
+        final long deadline;
+
+        /*
+         * The task, or null once cancelled.
+         */
+        volatile Runnable task;
+
+        long rounds;
+
+        Entry(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * Keep the task from running, and let the wheel drop it.
+         */
+        void cancel() {
+            task = null;
+        }
+    }
+
+    private final long tickNanos;
+
+    private final int mask;
+
+    /*
+     * Buckets of the wheel. Only accessed by the wheel thread.
+     */
+    private final ArrayDeque<Entry>[] buckets;
+
+    /*
+     * Tasks scheduled since the last tick.
+     */
+    private final ConcurrentLinkedQueue<Entry> incoming;
+
+    private final AtomicBoolean started;
+
+    private long start;
+
+    /**
+     * Create a new timing wheel with a 10ms tick and 512 buckets.
+     */
+    TimingWheel() {
+        this(10, 512);
+    }
+
+    /**
+     * Create a new timing wheel. The thread is started on the first call to
+     * {@link TimingWheel#schedule(long, Runnable)}.
+     *
+     * @param tickMillis The resolution of the wheel in milliseconds.
+     * @param size The number of buckets. Rounded up to a power of two.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(long tickMillis, int size) {
+        int n = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.mask = n - 1;
+        this.buckets = new ArrayDeque[n];
+        for (int i = 0; i < n; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.incoming = new ConcurrentLinkedQueue<>();
+        this.started = new AtomicBoolean(false);
+    }
+
+    /**
+     * Run a task after a delay.
+     *
+     * @param delayMillis The delay in milliseconds.
+     * @param task The task.
+     * @return The scheduled task, to cancel it.
+     */
+    Entry schedule(long delayMillis, Runnable task) {
+        if (started.compareAndSet(false, true)) {
+            start = System.nanoTime();
+            Thread thread = new Thread(this::run, "timing-wheel");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Entry entry = new Entry(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis), task);
+        incoming.add(entry);
+        return entry;
+    }
+
+    private void run() {
+        long tick = 0;
+        while (true) {
+            long sleep = start + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            // Place new tasks in the bucket of their deadline
+            for (Entry entry = incoming.poll(); entry != null; entry = incoming.poll()) {
+                if (entry.task == null) {
+                    continue;
+                }
+                long ticks = Math.max((entry.deadline - start) / tickNanos, tick);
+                entry.rounds = (ticks - tick) / buckets.length;
+                buckets[(int) (ticks & mask)].add(entry);
+            }
+            // Run the tasks of this bucket that are due in this round, and
+            // drop the cancelled ones
+            Iterator<Entry> it = buckets[(int) (tick & mask)].iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                Runnable task = entry.task;
+                if (task == null) {
+                    it.remove();
+                } else if (entry.rounds <= 0) {
+                    it.remove();
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
+                } else {
+                    entry.rounds--;
+                }
+            }
+            tick++;
+        }
+    }
+}
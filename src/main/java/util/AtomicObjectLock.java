@@ -0,0 +1,159 @@
+package util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * ReadWriteLock that locks objects for transactions, with the whole state of
+ * the lock in one atomic word: the number of readers, or a writer bit. Locking
+ * and unlocking is a single CAS and allocates nothing.
+ *
+ * The lock does not know who holds it, so a transaction must release exactly
+ * the locks it grabbed. A read release by a transaction that does not hold
+ * the lock is not detected: it takes the place of a reader that does, and
+ * the lock is freed while that reader still uses it. In debug mode, or with
+ * assertions enabled, the lock also keeps the IDs of its holders and throws
+ * {@link IllegalStateException} on a release by a transaction that does not
+ * hold it.
+ */
+public class AtomicObjectLock {
+    /*
+     * The state of a lock held by a writer.
+     */
+    private static final int WRITE_LOCKED = -1;
+
+    /*
+     * The state of a lock that has been evicted from its table and must not
+     * be grabbed again.
+     */
+    private static final int RETIRED = -2;
+
+    /*
+     * True iff assertions are enabled, in which case every lock checks its
+     * holders as in debug mode.
+     */
+    private static final boolean ASSERTIONS;
+
+    static {
+        boolean enabled = false;
+        assert enabled = true;
+        ASSERTIONS = enabled;
+    }
+
+    private static final AtomicIntegerFieldUpdater<AtomicObjectLock> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(AtomicObjectLock.class, "state");
+
+    /*
+     * The number of readers, or WRITE_LOCKED or RETIRED.
+     */
+    private volatile int state;
+
+    /*
+     * IDs of the transactions that hold the lock, only kept in debug mode
+     * or with assertions enabled.
+     */
+    private final Set<Long> holders;
+
+    /**
+     * Create a free lock.
+     *
+     * @param debug Whether to keep track of the transactions holding the
+     *              lock even with assertions disabled.
+     */
+    public AtomicObjectLock(boolean debug) {
+        this.state = 0;
+        this.holders = debug || ASSERTIONS ? ConcurrentHashMap.newKeySet() : null;
+    }
+
+    /**
+     * Grab the read lock of this object for a transaction.
+     *
+     * @param tid ID of the transaction
+     * @return {@code true} iff the read lock is successfully grabbed.
+     */
+    public boolean lockread(long tid) {
+        while (true) {
+            int s = state;
+            if (s < 0) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, s, s + 1)) {
+                if (holders != null) {
+                    holders.add(tid);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Grab the write lock of this object for a transaction.
+     *
+     * @param tid ID of the transaction
+     * @return {@code true} iff the write lock is successfully grabbed.
+     */
+    public boolean lockwrite(long tid) {
+        if (STATE.compareAndSet(this, 0, WRITE_LOCKED)) {
+            if (holders != null) {
+                holders.add(tid);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Release the read lock of this object for a transaction, which must
+     * hold it.
+     *
+     * @param tid ID of the transaction
+     * @return {@code true} iff the lock is free afterwards.
+     */
+    public boolean releaseread(long tid) {
+        if (holders != null && !holders.remove(tid)) {
+            throw new IllegalStateException("Transaction " + tid + " does not hold the read lock");
+        }
+        while (true) {
+            int s = state;
+            if (s <= 0) {
+                throw new IllegalStateException("Read lock is not held");
+            }
+            if (STATE.compareAndSet(this, s, s - 1)) {
+                return s == 1;
+            }
+        }
+    }
+
+    /**
+     * Release the write lock of this object for a transaction, which must
+     * hold it.
+     *
+     * @param tid ID of the transaction
+     * @return {@code true} iff the lock is free afterwards, which is always.
+     */
+    public boolean releasewrite(long tid) {
+        if (holders != null && !holders.remove(tid)) {
+            throw new IllegalStateException("Transaction " + tid + " does not hold the write lock");
+        }
+        if (!STATE.compareAndSet(this, WRITE_LOCKED, 0)) {
+            throw new IllegalStateException("Write lock is not held");
+        }
+        return true;
+    }
+
+    /*
+     * Retire the lock if it is free, so it can be evicted from its table.
+     * Return true iff the lock was retired.
+     */
+    boolean retire() {
+        return STATE.compareAndSet(this, 0, RETIRED);
+    }
+
+    /*
+     * Return true iff the lock has been retired.
+     */
+    boolean isRetired() {
+        return state == RETIRED;
+    }
+}
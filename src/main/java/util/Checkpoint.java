@@ -0,0 +1,292 @@
+package util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A snapshot of a store's versions and of the transactions prepared but not
+ * yet committed or aborted, taken at an LSN of its log. Recovery loads the
+ * latest snapshot and replays the log from that LSN.
+ *
+ * The file is laid out as
+ * <pre>
+ *   int magic, int segmentBytes, long lsn, long count, long numPrepared,
+ *   count * (long oid, long vnum),
+ *   numPrepared * (long tid, int size, size * long oid, size * long vnum,
+ *                  (size + 63) / 64 * long writes)
+ * </pre>
+ * with the objects in ascending oid order, so the versions can be mapped and
+ * read sequentially. The prepared transactions are {@link LockRequest}s.
+ */
+public class Checkpoint {
+    private static final int MAGIC = 0x43484b50;
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8;
+
+    /*
+     * The most bytes of the file mapped at once.
+     */
+    private static final int MAP_BYTES = 1 << 30;
+
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".snap";
+
+    private final long lsn;
+    private final int segmentBytes;
+    private final VersionTable versions;
+    private final Map<Long, LockRequest> prepared;
+
+    private Checkpoint(long lsn, int segmentBytes, VersionTable versions, Map<Long, LockRequest> prepared) {
+        this.lsn = lsn;
+        this.segmentBytes = segmentBytes;
+        this.versions = versions;
+        this.prepared = prepared;
+    }
+
+    /**
+     * @return The LSN of the log to replay from.
+     */
+    public long getLsn() {
+        return lsn;
+    }
+
+    /**
+     * @return The size of the segments of the log.
+     */
+    public int getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    public VersionTable getVersions() {
+        return versions;
+    }
+
+    /**
+     * @return The transactions prepared at the LSN, by tid.
+     */
+    public Map<Long, LockRequest> getPrepared() {
+        return prepared;
+    }
+
+    private static Path path(Path dir, long lsn) {
+        return dir.resolve(String.format("%s%019d%s", PREFIX, lsn, SUFFIX));
+    }
+
+    /**
+     * Write a checkpoint to a directory, replacing the older ones once it is
+     * durable. The versions may change while they are written as long as
+     * the log from {@code lsn} on holds every change made after the
+     * checkpoint started.
+     *
+     * @param dir The directory of the log.
+     * @param segmentBytes The size of the segments of the log.
+     * @param lsn The LSN of the log to replay from.
+     * @param versions The versions of the objects.
+     * @param prepared The transactions prepared at the LSN, by tid.
+     * @return The size of the checkpoint in bytes.
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    public static long write(Path dir, int segmentBytes, long lsn, VersionTable versions,
+                             Map<Long, LockRequest> prepared) throws IOException {
+        Path tmp = dir.resolve(PREFIX + "tmp");
+        long size;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // The header is written last, over the zeros it starts as
+            ByteBuffer out = ByteBuffer.allocateDirect(1 << 16);
+            out.position(HEADER_BYTES);
+            long[] count = {0};
+            try {
+                versions.forEachSorted((oid, vnum) -> {
+                    if (out.remaining() < 16) {
+                        drain(channel, out);
+                    }
+                    out.putLong(oid);
+                    out.putLong(vnum);
+                    count[0]++;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            for (Map.Entry<Long, LockRequest> entry : prepared.entrySet()) {
+                LockRequest request = entry.getValue();
+                int n = request.size();
+                int bytes = 12 + 16 * n + 8 * ((n + 63) / 64);
+                if (out.remaining() < bytes) {
+                    drain(channel, out);
+                }
+                if (bytes <= out.remaining()) {
+                    putPrepared(out, entry.getKey(), request);
+                } else {
+                    ByteBuffer record = ByteBuffer.allocate(bytes);
+                    putPrepared(record, entry.getKey(), request);
+                    drain(channel, record);
+                }
+            }
+            drain(channel, out);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC);
+            header.putInt(segmentBytes);
+            header.putLong(lsn);
+            header.putLong(count[0]);
+            header.putLong(prepared.size());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, HEADER_BYTES - header.remaining());
+            }
+            channel.force(true);
+            size = channel.size();
+        }
+        Path target = path(dir, lsn);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : old) {
+                if (!file.equals(target) && file.getFileName().toString().compareTo(target.getFileName().toString()) < 0) {
+                    Files.delete(file);
+                }
+            }
+        }
+        return size;
+    }
+
+    /*
+     * Put prepared transaction [tid] into [out].
+     */
+    private static void putPrepared(ByteBuffer out, long tid, LockRequest request) {
+        int n = request.size();
+        out.putLong(tid);
+        out.putInt(n);
+        for (int i = 0; i < n; i++) {
+            out.putLong(request.oid(i));
+        }
+        for (int i = 0; i < n; i++) {
+            out.putLong(request.vnum(i));
+        }
+        for (int word = 0; word < (n + 63) / 64; word++) {
+            long bits = 0;
+            for (int i = word * 64; i < Math.min(n, word * 64 + 64); i++) {
+                if (request.isWrite(i)) {
+                    bits |= 1L << i;
+                }
+            }
+            out.putLong(bits);
+        }
+    }
+
+    /*
+     * Write out the bytes in [out] and clear it.
+     */
+    private static void drain(FileChannel channel, ByteBuffer out) {
+        try {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Load the latest checkpoint in a directory.
+     *
+     * @param dir The directory of the log.
+     * @return The checkpoint, or {@code null} if there is none.
+     * @throws IOException If the checkpoint cannot be read.
+     */
+    public static Checkpoint loadLatest(Path dir) throws IOException {
+        Path latest = null;
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (latest == null || file.getFileName().toString().compareTo(latest.getFileName().toString()) > 0) {
+                    latest = file;
+                }
+            }
+        }
+        return latest == null ? null : load(latest);
+    }
+
+    /**
+     * Load a checkpoint. Objects whose oids are contiguous, like the ones a
+     * store is created with, are loaded into the dense range of the version
+     * table.
+     *
+     * @param file The checkpoint file.
+     * @return The checkpoint.
+     * @throws IOException If the checkpoint cannot be read.
+     */
+    public static Checkpoint load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a checkpoint: " + file);
+            }
+            int segmentBytes = header.getInt();
+            long lsn = header.getLong();
+            long count = header.getLong();
+            long numPrepared = header.getLong();
+
+            VersionTable versions;
+            if (count == 0) {
+                versions = new VersionTable();
+            } else {
+                long first = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 8).getLong();
+                long last = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + (count - 1) * 16, 8).getLong();
+                long span = last - first + 1;
+                // dense if at most half of the range is missing
+                versions = span <= 2 * count && span <= Integer.MAX_VALUE
+                        ? new VersionTable(first, (int) span)
+                        : new VersionTable();
+            }
+            long position = HEADER_BYTES;
+            long end = HEADER_BYTES + count * 16;
+            while (position < end) {
+                // map whole pairs at a time
+                long bytes = Math.min(end - position, MAP_BYTES);
+                MappedByteBuffer pairs = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+                while (pairs.hasRemaining()) {
+                    versions.set(pairs.getLong(), pairs.getLong());
+                }
+                position += bytes;
+            }
+
+            Map<Long, LockRequest> prepared = new HashMap<>();
+            if (numPrepared > 0) {
+                ByteBuffer rest = channel.map(FileChannel.MapMode.READ_ONLY, end, channel.size() - end);
+                for (long p = 0; p < numPrepared; p++) {
+                    long tid = rest.getLong();
+                    int n = rest.getInt();
+                    long[] oids = new long[n];
+                    long[] vnums = new long[n];
+                    long[] writes = new long[(n + 63) / 64];
+                    for (int i = 0; i < n; i++) {
+                        oids[i] = rest.getLong();
+                    }
+                    for (int i = 0; i < n; i++) {
+                        vnums[i] = rest.getLong();
+                    }
+                    for (int i = 0; i < writes.length; i++) {
+                        writes[i] = rest.getLong();
+                    }
+                    prepared.put(tid, new LockRequest(oids, writes, vnums));
+                }
+            }
+            return new Checkpoint(lsn, segmentBytes, versions, prepared);
+        }
+    }
+}
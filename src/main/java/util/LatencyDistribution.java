@@ -0,0 +1,95 @@
+package util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The distribution of the delay of a message over a network link, with a
+ * mean and a spread in microseconds. Samples are never negative.
+ */
+public class LatencyDistribution {
+    /**
+     * The shape of a distribution.
+     */
+    public enum Kind {
+        /*
+         * Always the mean.
+         */
+        Constant,
+
+        /*
+         * Uniform within the spread of the mean.
+         */
+        Uniform,
+
+        /*
+         * Normal, with the spread as its standard deviation.
+         */
+        Normal,
+
+        /*
+         * The mean less the spread, plus a Pareto tail of shape 2 whose mean
+         * is the spread: mostly close to the minimum, with rare delays many
+         * times the mean.
+         */
+        LongTail
+    }
+
+    private final Kind kind;
+    private final double meanNanos;
+    private final double spreadNanos;
+
+    /**
+     * Create a distribution.
+     *
+     * @param kind The shape of the distribution.
+     * @param meanMicros The mean delay in microseconds.
+     * @param spreadMicros How far delays spread from the mean, in
+     *                     microseconds.
+     */
+    public LatencyDistribution(Kind kind, double meanMicros, double spreadMicros) {
+        this.kind = kind;
+        this.meanNanos = meanMicros * 1000;
+        this.spreadNanos = spreadMicros * 1000;
+    }
+
+    /**
+     * @return A distribution that is always 0.
+     */
+    public static LatencyDistribution none() {
+        return new LatencyDistribution(Kind.Constant, 0, 0);
+    }
+
+    /**
+     * @return A sampled delay in nanoseconds.
+     */
+    public long sampleNanos() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double nanos;
+        switch (kind) {
+            case Uniform:
+                nanos = meanNanos + spreadNanos * (2 * random.nextDouble() - 1);
+                break;
+            case Normal:
+                nanos = meanNanos + spreadNanos * random.nextGaussian();
+                break;
+            case LongTail:
+                // 1 - nextDouble() is in (0, 1]
+                nanos = meanNanos - spreadNanos + spreadNanos * (1 / Math.sqrt(1 - random.nextDouble()) - 1);
+                break;
+            default:
+                nanos = meanNanos;
+        }
+        return Math.max(0, (long) nanos);
+    }
+
+    /**
+     * @return The mean delay in microseconds.
+     */
+    public double getMeanMicros() {
+        return meanNanos / 1000;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+}
@@ -0,0 +1,63 @@
+package util;
+
+/**
+ * The cost of sending a message over a network link: a sampled propagation
+ * delay, a serialization cost per object the message carries, and the time
+ * to transmit its bytes at the link's bandwidth.
+ */
+public class LinkModel {
+    private final LatencyDistribution delay;
+
+    /*
+     * The bandwidth in bytes per second, or 0 if it is unlimited.
+     */
+    private final double bytesPerSecond;
+
+    private final double perObjectNanos;
+
+    /**
+     * Create a link model.
+     *
+     * @param delay The distribution of the propagation delay.
+     * @param bandwidthMbps The bandwidth in megabits per second, or 0 if it
+     *                      is unlimited.
+     * @param perObjectMicros The time in microseconds to serialize each
+     *                        object a message carries.
+     */
+    public LinkModel(LatencyDistribution delay, double bandwidthMbps, double perObjectMicros) {
+        this.delay = delay;
+        this.bytesPerSecond = bandwidthMbps * 1e6 / 8;
+        this.perObjectNanos = perObjectMicros * 1000;
+    }
+
+    /**
+     * @return A link with no delay, unlimited bandwidth and free
+     *         serialization.
+     */
+    public static LinkModel none() {
+        return new LinkModel(LatencyDistribution.none(), 0, 0);
+    }
+
+    /**
+     * @return A sampled propagation delay in nanoseconds.
+     */
+    public long sampleDelayNanos() {
+        return delay.sampleNanos();
+    }
+
+    /**
+     * @param objects The number of objects in a message.
+     * @return The time in nanoseconds to serialize the message.
+     */
+    public long serializeNanos(int objects) {
+        return (long) (objects * perObjectNanos);
+    }
+
+    /**
+     * @param bytes The size of a message.
+     * @return The time in nanoseconds the message occupies the link.
+     */
+    public long transmitNanos(int bytes) {
+        return bytesPerSecond <= 0 ? 0 : (long) (bytes * 1e9 / bytesPerSecond);
+    }
+}
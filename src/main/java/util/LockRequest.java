@@ -0,0 +1,151 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The objects a transaction accesses, as one entry per object: the distinct
+ * oids in ascending order, which is the order locks are grabbed in to avoid
+ * deadlock, a bitmap of the ones the transaction writes, and the version it
+ * reads or writes of each. Built once per transaction, so grabbing and
+ * releasing its locks in an {@link ObjectLockTable} never builds sets or
+ * sorts boxed oids. With {@link ObjectLockTable.Kind#Atomic} locks the
+ * only allocation left is boxing an oid to look its lock up, which escape
+ * analysis can remove; {@link ObjectLockTable.Kind#Sync} locks still
+ * allocate a lock and a holder entry per object.
+ */
+public final class LockRequest {
+    /*
+     * The distinct oids, sorted.
+     */
+    private final long[] oids;
+
+    /*
+     * Bit i is set iff the transaction writes oids[i].
+     */
+    private final long[] writes;
+
+    /*
+     * The version written of oids[i] if it is written, or the version read.
+     */
+    private final long[] vnums;
+
+    /**
+     * Create a lock request from sorted oids and a write bitmap.
+     *
+     * @param oids The distinct oids in ascending order.
+     * @param writes A bitmap where bit i is set iff {@code oids[i]} is
+     *               written. Bit i is bit {@code i % 64} of word {@code i / 64}.
+     * @param vnums The version written of each object if it is written, or
+     *              the version read otherwise.
+     */
+    public LockRequest(long[] oids, long[] writes, long[] vnums) {
+        this.oids = oids;
+        this.writes = writes;
+        this.vnums = vnums;
+    }
+
+    /**
+     * Create a lock request for the objects a transaction reads and writes. An
+     * object that is both read and written is only write locked.
+     *
+     * @param reads The objects read.
+     * @param writes The objects written.
+     * @return The lock request.
+     */
+    public static LockRequest of(Set<ObjectVN> reads, Set<ObjectVN> writes) {
+        long[] oids = new long[reads.size() + writes.size()];
+        int n = 0;
+        for (ObjectVN read : reads) {
+            oids[n++] = read.oid;
+        }
+        for (ObjectVN write : writes) {
+            oids[n++] = write.oid;
+        }
+        Arrays.sort(oids);
+        // Drop duplicates in place
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (size == 0 || oids[size - 1] != oids[i]) {
+                oids[size++] = oids[i];
+            }
+        }
+        if (size < oids.length) {
+            oids = Arrays.copyOf(oids, size);
+        }
+        long[] bitmap = new long[(size + 63) >>> 6];
+        long[] vnums = new long[size];
+        for (ObjectVN read : reads) {
+            vnums[Arrays.binarySearch(oids, read.oid)] = read.vnum;
+        }
+        // The version written wins over the version read
+        for (ObjectVN write : writes) {
+            int i = Arrays.binarySearch(oids, write.oid);
+            bitmap[i >>> 6] |= 1L << i;
+            vnums[i] = write.vnum;
+        }
+        return new LockRequest(oids, bitmap, vnums);
+    }
+
+    /**
+     * @return The number of objects to lock.
+     */
+    public int size() {
+        return oids.length;
+    }
+
+    /**
+     * @param i The index of an object, between 0 and {@link LockRequest#size()}.
+     * @return The oid of the i-th object in ascending order.
+     */
+    public long oid(int i) {
+        return oids[i];
+    }
+
+    /**
+     * @param i The index of an object, between 0 and {@link LockRequest#size()}.
+     * @return {@code true} iff the i-th object is written.
+     */
+    public boolean isWrite(int i) {
+        return (writes[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * @param i The index of an object, between 0 and {@link LockRequest#size()}.
+     * @return The version written of the i-th object if it is written, or the
+     *         version read otherwise.
+     */
+    public long vnum(int i) {
+        return vnums[i];
+    }
+
+    /**
+     * @return The number of objects written.
+     */
+    public int numWrites() {
+        int res = 0;
+        for (long word : writes) {
+            res += Long.bitCount(word);
+        }
+        return res;
+    }
+
+    /**
+     * Build the versions the transaction writes. Allocates, so it is meant
+     * for commit and abort rather than the locking path.
+     *
+     * @return The objects written with their new versions, in ascending oid
+     *         order.
+     */
+    public List<ObjectVN> getWrites() {
+        List<ObjectVN> res = new ArrayList<>(numWrites());
+        for (int i = 0; i < oids.length; i++) {
+            if (isWrite(i)) {
+                res.add(new ObjectVN(oids[i], vnums[i]));
+            }
+        }
+        return res;
+    }
+}
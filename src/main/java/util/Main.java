@@ -1,10 +1,19 @@
 package util;
 
+import benchmark.BufferBenchmark;
 import benchmark.CSVData;
+import benchmark.LinkBenchmark;
+import benchmark.LockBenchmark;
+import benchmark.RecoveryBenchmark;
 import benchmark.StoreBenchmark;
 import benchmark.WorkerBenchmark;
 import picocli.CommandLine;
+import smartbuffer.AdmissionPolicy;
+import smartbuffer.LockFreeBuffer;
+import smartbuffer.NumLinkBuffer;
 import smartbuffer.OptimizedNumLinkBuffer;
+import smartbuffer.ResolutionListener;
+import smartbuffer.ShardedBuffer;
 import smartbuffer.SmartBuffer;
 
 import java.io.File;
@@ -14,11 +23,24 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @CommandLine.Command (name = "fbuffer", version = "Fabric buffer tester")
 public class Main implements Runnable {
@@ -73,10 +95,28 @@ public class Main implements Runnable {
      */
     private boolean exit;
 
-    private int txn_ended;
+    /*
+     * The number of transactions ended, counted from the threads that end them.
+     */
+    private final LongAdder txn_ended = new LongAdder();
 
     private AtomicLong last_unused_oid;
 
+    /*
+     * The resolver shared by all stores when running with -resolver=pool.
+     */
+    private ExecutorService sharedResolver;
+
+    /*
+     * The network between the workers and the stores of the test.
+     */
+    private Network network;
+
+    /*
+     * The clock shared by all stores when running with -store=mv.
+     */
+    private SnapshotClock snapshotClock;
+
     /**
      * Run a test, generating and running transactions for the set duration.
      *
@@ -90,8 +130,8 @@ public class Main implements Runnable {
      * @param txnSize The number of objects in each transaction, as a proportion of the total number of objects in each
      *                store.
      * @param writeRatio The proportion of queried objects that are writes.
-     * @param homeInterval Time taken for a worker to communicate with the home store.
-     * @param remoteInterval Time taken for a worker to communicate with a remote store.
+     * @param homeInterval Mean time in milliseconds taken for a worker to communicate with the home store.
+     * @param remoteInterval Mean time in milliseconds taken for a worker to communicate with a remote store.
      */
     private Pair<List<Store>, List<Worker>> newTest(boolean optimized,
                                                     int duration,
@@ -101,8 +141,8 @@ public class Main implements Runnable {
                                                     int dbSize,
                                                     RandomGenerator txnSize,
                                                     float writeRatio,
-                                                    int homeInterval,
-                                                    int remoteInterval) {
+                                                    double homeInterval,
+                                                    double remoteInterval) throws IOException {
         //Initialize fields
         // List of stores.
         ArrayList<Store> storelist = new ArrayList<>();
@@ -114,22 +154,69 @@ public class Main implements Runnable {
         ArrayList<Thread> txngentestlist = new ArrayList<>();
 
         last_unused_oid = new AtomicLong();
+        AtomicLong txnStarted = new AtomicLong();
+        ObjectLockTable.Kind lockKind = newLockKind();
+        ObjectLockTable.WaitPolicy lockPolicy = newWaitPolicy();
 
 
+        if (partitions > 1 && storeType.equals("mv")) {
+            // the snapshot clock counts a commit once per store, not per partition
+            throw new IllegalArgumentException("-store=mv does not support -partitions");
+        }
+        if (!pipeline.equals("thread") && !pipeline.equals("async")) {
+            throw new IllegalArgumentException("Unknown pipeline: " + pipeline);
+        }
+        if (pipeline.equals("async")) {
+            // each of these blocks the thread a message is delivered on, which
+            // the other transactions in flight need to make progress
+            if (commitBatch > 1) {
+                throw new IllegalArgumentException("-pipeline=async does not support -commit-batch, " +
+                        "a commit waits for its batch to be applied");
+            }
+            if (partitions > 1) {
+                throw new IllegalArgumentException("-pipeline=async does not support -partitions, " +
+                        "a commit or abort waits for every partition it touches");
+            }
+            if (walDir != null && walSync.equals("always")) {
+                throw new IllegalArgumentException("-pipeline=async does not support -wal-sync=always, " +
+                        "a prepare or commit waits for the log to be forced");
+            }
+            if (admission.equals("block")) {
+                throw new IllegalArgumentException("-pipeline=async does not support -admission=block, " +
+                        "a prepare waits for room in the buffer");
+            }
+        }
+
+        MessageDispatcher dispatcher = newDispatcher();
+
         HashMap<Long, Long> lastversion = new HashMap<>();
         //Initialize stores
         for (int i = 0; i < stores; i++) {
             //Initialize objects
-            HashMap<Long, Long> lastversion_store = new HashMap<>();
             for (long oid = i*dbSize; oid < (i + 1)*dbSize; oid++){
                 last_unused_oid.incrementAndGet();
                 lastversion.put(oid, 0L);
-                lastversion_store.put(oid, 0L);
             }
-            SmartBuffer buffer = new OptimizedNumLinkBuffer();
-            Store store = new StoreSB(buffer, lastversion_store, WITH_BUFFER);
-            buffer.setStore(store);
-            storelist.add(store);
+            long base = (long) i*dbSize;
+            Path logDir = walDir == null ? null : walDir.resolve("store-" + i);
+            if (partitions > 1) {
+                PartitionedStore.Partitioning partitioning = newPartitioning();
+                List<StoreSB> parts = new ArrayList<>();
+                for (int p = 0; p < partitions; p++) {
+                    VersionTable versions = PartitionedStore.newVersionTable(p, partitions, partitioning, base, dbSize);
+                    parts.add(newStoreSB(versions, logDir == null ? null : logDir.resolve("partition-" + p), false));
+                }
+                storelist.add(new PartitionedStore(parts, partitioning, base, dbSize));
+            } else {
+                storelist.add(newStoreSB(VersionTable.filled(base, dbSize, 0L), logDir, true));
+            }
+        }
+
+        if (topologyFile != null) {
+            network = new Network(Topology.load(topologyFile), storelist, fifo, true);
+        } else {
+            network = new Network(Topology.of(new LinkModel(newLatencyDistribution(homeInterval), 0, 0),
+                    new LinkModel(newLatencyDistribution(remoteInterval), 0, 0)), storelist, fifo, false);
         }
 
         //Initialize location
@@ -145,10 +232,13 @@ public class Main implements Runnable {
         //Initialize workers
         for (int i = 0; i < workers; i++) {
             int storeindex = (int)(1.0 * i / workers * stores);
-            Worker worker = new Worker(i, storelist, WORKER_CONCUR, !optimized, lastversion, location, threads, storelist.get(storeindex), homeInterval, remoteInterval);
+            Worker worker = new Worker(i, storelist, WORKER_CONCUR, !optimized, lastversion, location, threads, storelist.get(storeindex), (int) homeInterval, (int) remoteInterval, lockKind, lockPolicy, lockWaitMax);
+            worker.clock = snapshotClock;
+            worker.dispatcher = dispatcher;
+            worker.network = network;
             workerlist.add(worker);
             TxnGenerator txngen;
-            txngen = new TxnGenerator(worker, txnSize, writeRatio, TXN_QUEUE_CAPACITY, last_unused_oid);
+            txngen = new TxnGenerator(worker, txnSize, writeRatio, TXN_QUEUE_CAPACITY, last_unused_oid, txnStarted);
 
             workerpreparelist.add(new Thread(new WorkerPrepareThread(worker)));
             txngenlist.add(new Thread(new TxnGenThread(txngen)));
@@ -184,6 +274,411 @@ public class Main implements Runnable {
         return new Pair<>(storelist, workerlist);
     }
 
+    /*
+     * Create a store with its own buffer, configured from the options, that
+     * logs to [logDir] if it is not null. Without [groupCommit], commits are
+     * applied one at a time on the committing thread.
+     */
+    private StoreSB newStoreSB(VersionTable versions, Path logDir, boolean groupCommit) throws IOException {
+        SmartBuffer buffer = newBuffer();
+        buffer.setResolver(newResolver());
+        buffer.setTimeout(bufferTimeout);
+        StoreSB store = newStore(buffer, versions);
+        store.setAdmissionPolicy(newAdmissionPolicy());
+        if (groupCommit) {
+            store.setGroupCommit(commitBatch, commitWindow);
+        }
+        if (logDir != null) {
+            store.setLog(new WriteAheadLog(logDir, walSegmentMB << 20, newSyncPolicy(), walSyncInterval));
+            store.checkpoint();
+            if (checkpointInterval > 0) {
+                store.setCheckpointInterval(checkpointInterval);
+            }
+        }
+        buffer.setStore(store);
+        return store;
+    }
+
+    /*
+     * Create the dispatcher workers send messages to stores through, as
+     * selected by -dispatch.
+     */
+    private MessageDispatcher newDispatcher() {
+        switch (dispatch) {
+            case "scheduled":
+                return new ScheduledDispatcher(dispatchThreads);
+            case "thread":
+                return new ThreadDispatcher();
+            default:
+                throw new IllegalArgumentException("Unknown dispatcher: " + dispatch);
+        }
+    }
+
+    /*
+     * Return the delay distribution selected by -delay for links with the
+     * given interval in milliseconds. Delays average half the interval and
+     * spread by -jitter microseconds, or by half the interval if it is
+     * negative, so the default is uniform between 0 and the interval.
+     */
+    private LatencyDistribution newLatencyDistribution(double intervalMillis) {
+        double mean = intervalMillis * 1000 / 2;
+        double spread = jitter < 0 ? mean : jitter;
+        switch (delay) {
+            case "constant":
+                return new LatencyDistribution(LatencyDistribution.Kind.Constant, mean, spread);
+            case "uniform":
+                return new LatencyDistribution(LatencyDistribution.Kind.Uniform, mean, spread);
+            case "normal":
+                return new LatencyDistribution(LatencyDistribution.Kind.Normal, mean, spread);
+            case "longtail":
+                return new LatencyDistribution(LatencyDistribution.Kind.LongTail, mean, spread);
+            default:
+                throw new IllegalArgumentException("Unknown delay distribution: " + delay);
+        }
+    }
+
+    /*
+     * Return how objects are assigned to partitions, as selected by
+     * -partitioning.
+     */
+    private PartitionedStore.Partitioning newPartitioning() {
+        switch (partitioning) {
+            case "hash":
+                return PartitionedStore.Partitioning.Hash;
+            case "range":
+                return PartitionedStore.Partitioning.Range;
+            default:
+                throw new IllegalArgumentException("Unknown partitioning: " + partitioning);
+        }
+    }
+
+    /*
+     * Create a store of the kind selected by -store.
+     */
+    private StoreSB newStore(SmartBuffer buffer, VersionTable lastversion) {
+        switch (storeType) {
+            case "sb":
+                return new StoreSB(buffer, lastversion, WITH_BUFFER, newLockKind());
+            case "mv":
+                if (snapshotClock == null) {
+                    snapshotClock = new SnapshotClock();
+                }
+                return new StoreMV(buffer, lastversion, WITH_BUFFER, snapshotClock, valueSize, maxVersions,
+                        newLockKind());
+            default:
+                throw new IllegalArgumentException("Unknown store type: " + storeType);
+        }
+    }
+
+    /*
+     * Create an empty buffer of the kind selected by -buffer.
+     */
+    private SmartBuffer newBuffer() {
+        return newBuffer(bufferType);
+    }
+
+    /*
+     * Create an empty buffer of the given kind.
+     */
+    private SmartBuffer newBuffer(String type) {
+        switch (type) {
+            case "numlink":
+                return new NumLinkBuffer();
+            case "optimized":
+                return new OptimizedNumLinkBuffer();
+            case "lockfree":
+                return new LockFreeBuffer();
+            case "sharded":
+                return new ShardedBuffer(shards);
+            default:
+                throw new IllegalArgumentException("Unknown buffer type: " + type);
+        }
+    }
+
+    /*
+     * Create the executor a buffer resolves transactions on, as selected by
+     * -resolver.
+     */
+    private Executor newResolver() {
+        switch (resolverType) {
+            case "inline":
+                return Runnable::run;
+            case "thread":
+                return Executors.newSingleThreadExecutor(Main::daemonThread);
+            case "pool":
+                if (sharedResolver == null) {
+                    sharedResolver = Executors.newFixedThreadPool(
+                            Runtime.getRuntime().availableProcessors(), Main::daemonThread);
+                }
+                return sharedResolver;
+            default:
+                throw new IllegalArgumentException("Unknown resolver type: " + resolverType);
+        }
+    }
+
+    /*
+     * Return the kind of object lock selected by -locks.
+     */
+    private ObjectLockTable.Kind newLockKind() {
+        switch (lockType) {
+            case "sync":
+                return ObjectLockTable.Kind.Sync;
+            case "atomic":
+                return ObjectLockTable.Kind.Atomic;
+            case "atomic-debug":
+                return ObjectLockTable.Kind.AtomicDebug;
+            default:
+                throw new IllegalArgumentException("Unknown lock type: " + lockType);
+        }
+    }
+
+    /*
+     * Return the log sync policy selected by -wal-sync.
+     */
+    private WriteAheadLog.SyncPolicy newSyncPolicy() {
+        switch (walSync) {
+            case "always":
+                return WriteAheadLog.SyncPolicy.Always;
+            case "interval":
+                return WriteAheadLog.SyncPolicy.Interval;
+            case "none":
+                return WriteAheadLog.SyncPolicy.None;
+            default:
+                throw new IllegalArgumentException("Unknown log sync policy: " + walSync);
+        }
+    }
+
+    /*
+     * Return the lock wait policy selected by -lockwait.
+     */
+    private ObjectLockTable.WaitPolicy newWaitPolicy() {
+        switch (lockWait) {
+            case "nowait":
+                return ObjectLockTable.WaitPolicy.NoWait;
+            case "wait-die":
+                return ObjectLockTable.WaitPolicy.WaitDie;
+            case "wound-wait":
+                return ObjectLockTable.WaitPolicy.WoundWait;
+            default:
+                throw new IllegalArgumentException("Unknown lock wait policy: " + lockWait);
+        }
+    }
+
+    /*
+     * Create the admission policy of a store's buffer, as selected by
+     * -max-buffered, -max-deps, -admission and -admission-wait.
+     */
+    private AdmissionPolicy newAdmissionPolicy() {
+        switch (admission) {
+            case "reject":
+                return new AdmissionPolicy(maxBuffered, maxBufferedDeps, AdmissionPolicy.Mode.Reject, 0);
+            case "block":
+                return new AdmissionPolicy(maxBuffered, maxBufferedDeps, AdmissionPolicy.Mode.Block, admissionWait);
+            default:
+                throw new IllegalArgumentException("Unknown admission policy: " + admission);
+        }
+    }
+
+    /*
+     * Measure the add and remove throughput of each kind of buffer with each
+     * of [bufferBenchThreads] threads. Every thread buffers a transaction on
+     * the next version of one of its own objects, installs that version and
+     * removes it, which resolves the transaction, then deletes it. The
+     * sharded buffer resolves on its own threads after remove returns, so it
+     * is left out.
+     */
+    private List<BufferBenchmark> measureBuffers() throws InterruptedException {
+        final int objectsPerThread = 64;
+        List<BufferBenchmark> res = new ArrayList<>();
+        for (String type : new String[] {"numlink", "optimized", "lockfree"}) {
+            for (int n : bufferBenchThreads) {
+                SmartBuffer buffer = newBuffer(type);
+                StoreSB store = new StoreSB(buffer, VersionTable.filled(0, n * objectsPerThread, 0L), WITH_BUFFER);
+                buffer.setStore(store);
+                store.setWorkers(Collections.emptyList());
+
+                LongAdder operations = new LongAdder();
+                LongAdder resolved = new LongAdder();
+                ResolutionListener listener = (tid, outcome, reason) -> {
+                    if (outcome) {
+                        resolved.increment();
+                    }
+                };
+                CountDownLatch ready = new CountDownLatch(n);
+                CountDownLatch go = new CountDownLatch(1);
+                AtomicBoolean stop = new AtomicBoolean();
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < n; t++) {
+                    int first = t;
+                    Thread thread = new Thread(() -> {
+                        ready.countDown();
+                        try {
+                            go.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        long ops = 0;
+                        for (long i = 0; !stop.get(); i++) {
+                            long tid = i * n + first;
+                            long oid = first + (i % objectsPerThread) * n;
+                            ObjectVN next = new ObjectVN(oid, store.getVersion(oid) + 1);
+                            store.addpending(tid);
+                            buffer.add(tid, Collections.singleton(next), listener);
+                            store.setversion(next);
+                            buffer.remove(next);
+                            store.abort(tid);
+                            ops += 2;
+                        }
+                        operations.add(ops);
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+                ready.await();
+                long start = System.nanoTime();
+                go.countDown();
+                Thread.sleep(benchMillis);
+                stop.set(true);
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                res.add(new BufferBenchmark(type, n, operations.sum(), resolved.sum(), operations.sum() / seconds));
+            }
+        }
+        return res;
+    }
+
+    /*
+     * Measure the throughput of grabbing and releasing locks in a table of
+     * each kind of lock with each of [lockBenchThreads] threads. Every thread
+     * locks requests of 8 of the -objects objects, each written with
+     * probability -writeratio, built before the measurement starts.
+     */
+    private List<LockBenchmark> measureLocks() throws InterruptedException {
+        final int requestSize = 8;
+        final int requestsPerThread = 1024;
+        List<LockBenchmark> res = new ArrayList<>();
+        for (ObjectLockTable.Kind kind : new ObjectLockTable.Kind[] {ObjectLockTable.Kind.Sync,
+                ObjectLockTable.Kind.Atomic}) {
+            for (int n : lockBenchThreads) {
+                ObjectLockTable table = new ObjectLockTable(kind);
+                LongAdder grabs = new LongAdder();
+                LongAdder granted = new LongAdder();
+                CountDownLatch ready = new CountDownLatch(n);
+                CountDownLatch go = new CountDownLatch(1);
+                AtomicBoolean stop = new AtomicBoolean();
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < n; t++) {
+                    long first = t;
+                    LockRequest[] requests = new LockRequest[requestsPerThread];
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < requests.length; i++) {
+                        HashSet<ObjectVN> reads = new HashSet<>();
+                        HashSet<ObjectVN> writes = new HashSet<>();
+                        while (reads.size() + writes.size() < requestSize) {
+                            ObjectVN object = new ObjectVN(random.nextInt(objects), 0);
+                            if (random.nextFloat() < this.writes) {
+                                writes.add(object);
+                            } else {
+                                reads.add(object);
+                            }
+                        }
+                        requests[i] = LockRequest.of(reads, writes);
+                    }
+                    Thread thread = new Thread(() -> {
+                        ready.countDown();
+                        try {
+                            go.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        long tries = 0;
+                        long ok = 0;
+                        for (long i = 0; !stop.get(); i++) {
+                            LockRequest request = requests[(int) (i % requests.length)];
+                            long tid = i * n + first;
+                            tries++;
+                            if (table.grabLock(request, tid)) {
+                                ok++;
+                                table.releaseLock(request, tid);
+                            }
+                        }
+                        grabs.add(tries);
+                        granted.add(ok);
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+                ready.await();
+                long start = System.nanoTime();
+                go.countDown();
+                Thread.sleep(benchMillis);
+                stop.set(true);
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                res.add(new LockBenchmark(kind.name(), n, grabs.sum(), granted.sum(), grabs.sum() / seconds));
+            }
+        }
+        return res;
+    }
+
+    /*
+     * Measure how long a store with each of [recoveryObjects] objects takes
+     * to checkpoint, and to recover from that checkpoint and a log of
+     * [recoveryTail] records after it.
+     */
+    private List<RecoveryBenchmark> measureRecovery() throws IOException, InterruptedException {
+        List<RecoveryBenchmark> res = new ArrayList<>();
+        Path root = walDir != null ? walDir : Files.createTempDirectory("recovery");
+        for (int n : recoveryObjects) {
+            Path dir = root.resolve("recovery-" + n);
+            StoreSB store = new StoreSB(new OptimizedNumLinkBuffer(), VersionTable.filled(0, n, 0L), WITH_BUFFER);
+            store.setWorkers(Collections.emptyList());
+            WriteAheadLog log = new WriteAheadLog(dir, walSegmentMB << 20, WriteAheadLog.SyncPolicy.None, 0);
+            store.setLog(log);
+
+            long start = System.nanoTime();
+            long bytes = store.checkpoint();
+            double checkpointMillis = (System.nanoTime() - start) / 1e6;
+
+            // a prepare and a commit record per transaction
+            for (long tid = 0; tid < recoveryTail / 2; tid++) {
+                long oid = tid % n;
+                long vnum = store.getVersion(oid);
+                try {
+                    store.prepare(null, tid, Collections.singleton(new ObjectVN(oid, vnum)),
+                            Collections.singleton(new ObjectVN(oid, vnum + 1))).get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+                store.commit(null, tid);
+            }
+            int tail = log.getNumRecords();
+            log.sync(log.appended());
+            log.close();
+
+            start = System.nanoTime();
+            StoreSB.recover(new OptimizedNumLinkBuffer(), dir, walSegmentMB << 20,
+                    WriteAheadLog.SyncPolicy.None, 0, WITH_BUFFER);
+            double recoveryMillis = (System.nanoTime() - start) / 1e6;
+            res.add(new RecoveryBenchmark(n, checkpointMillis, bytes, tail, recoveryMillis));
+
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        return res;
+    }
+
+    private static Thread daemonThread(Runnable r) {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        return t;
+    }
+
     // TODO: add custom CSV settings (delimiter etc) as parameter
     private static void printRowToCSV(PrintWriter writer, CSVData data) {
         printRowToCSV(writer, data.row());
@@ -249,7 +744,9 @@ public class Main implements Runnable {
 
         @Override
         public void run() {
-            if (WORKER_CONCUR) {
+            if (pipeline.equals("async")) {
+                runAsync();
+            } else if (WORKER_CONCUR) {
                 try {
                     while (!exit) {
                         Runnable task = () -> {
@@ -259,7 +756,7 @@ public class Main implements Runnable {
                                 e.printStackTrace();
                                 throw e;
                             }
-                            txn_ended++;
+                            txn_ended.increment();
                             // System.out.println("Ended " + txn_ended);
                         };
                         worker.pool.execute(task);
@@ -275,6 +772,25 @@ public class Main implements Runnable {
                 }
             }
         }
+
+        /*
+         * Start transactions without waiting for them, keeping up to
+         * -inflight of them in flight at once.
+         */
+        private void runAsync() {
+            Semaphore inflight = new Semaphore(maxInflight);
+            try {
+                while (!exit) {
+                    inflight.acquire();
+                    worker.startnewtxnAsync().whenComplete((committed, e) -> {
+                        txn_ended.increment();
+                        inflight.release();
+                    });
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     @CommandLine.Option (names = {"-h", "--help"}, usageHelp = true, description = "Print a synopsis of options.")
@@ -297,6 +813,10 @@ public class Main implements Runnable {
             description = "File name for worker benchmarks (default: ${DEFAULT-VALUE})")
     private File workerfile;
 
+    @CommandLine.Option (names = "-linkfile", defaultValue = "links.csv",
+            description = "File name for network link benchmarks (default: ${DEFAULT-VALUE})")
+    private File linkfile;
+
     @CommandLine.Option (names = {"-stores"}, defaultValue = "1",
             description = "Number of stores (default: ${DEFAULT-VALUE})")
     private int stores;
@@ -326,12 +846,195 @@ public class Main implements Runnable {
     private int runtime;
 
     @CommandLine.Option (names = {"-interval-home"}, defaultValue = "0",
-            description = "Time taken for a worker to communicate with the home store (default: ${DEFAULT-VALUE})")
-    private int homeInterval;
+            description = "Time in milliseconds, which may be fractional, taken for a worker to communicate with " +
+                    "the home store. Commit and abort messages are delayed by half of it on average " +
+                    "(default: ${DEFAULT-VALUE})")
+    private double homeInterval;
 
     @CommandLine.Option (names = {"-interval-remote"}, defaultValue = "0",
-            description = "Time taken for a worker to communicate with a remote store (default: ${DEFAULT-VALUE})")
-    private int remoteInterval;
+            description = "Time in milliseconds, which may be fractional, taken for a worker to communicate with " +
+                    "a remote store. Commit and abort messages are delayed by half of it on average " +
+                    "(default: ${DEFAULT-VALUE})")
+    private double remoteInterval;
+
+    @CommandLine.Option (names = {"-delay"}, defaultValue = "uniform",
+            description = "Distribution of message delays on each link: constant, uniform, normal or longtail " +
+                    "(default: ${DEFAULT-VALUE})")
+    private String delay;
+
+    @CommandLine.Option (names = {"-jitter"}, defaultValue = "-1",
+            description = "How far message delays spread from their mean, in microseconds, or negative for half " +
+                    "the interval (default: ${DEFAULT-VALUE})")
+    private double jitter;
+
+    @CommandLine.Option (names = {"-topology"},
+            description = "File with the model of each link from a worker to a store, which replaces -interval-home, " +
+                    "-interval-remote, -delay and -jitter and also delays prepares by their size. See " +
+                    "topology.csv next to config.json for the format")
+    private Path topologyFile;
+
+    @CommandLine.Option (names = {"-fifo"},
+            description = "Run the messages on each link one at a time in the order they were sent, instead of " +
+                    "letting them overtake each other. A commit or abort never overtakes its prepare either way")
+    private boolean fifo = false;
+
+    @CommandLine.Option (names = {"-store"}, defaultValue = "sb",
+            description = "Store to use: sb, which keeps only versions, or mv, which keeps a chain of values per " +
+                    "object and serves read-only transactions from a snapshot (default: ${DEFAULT-VALUE})")
+    private String storeType;
+
+    @CommandLine.Option (names = {"-value-size"}, defaultValue = "100",
+            description = "Size in bytes of the value of each version with -store=mv (default: ${DEFAULT-VALUE})")
+    private int valueSize;
+
+    @CommandLine.Option (names = {"-max-versions"}, defaultValue = "8",
+            description = "Most versions kept of each object with -store=mv (default: ${DEFAULT-VALUE})")
+    private int maxVersions;
+
+    @CommandLine.Option (names = {"-pipeline"}, defaultValue = "thread",
+            description = "How workers run transactions: thread, each on a pool thread of -threads that waits for " +
+                    "its stores, or async, with the prepares and commits of up to -inflight transactions composed " +
+                    "as they resolve, without a thread waiting for any of them. Async does not support the options " +
+                    "that make a store wait: -commit-batch, -partitions, -wal-sync=always and -admission=block " +
+                    "(default: ${DEFAULT-VALUE})")
+    private String pipeline;
+
+    @CommandLine.Option (names = {"-inflight"}, defaultValue = "256",
+            description = "Most transactions each worker has in flight with -pipeline=async " +
+                    "(default: ${DEFAULT-VALUE})")
+    private int maxInflight;
+
+    @CommandLine.Option (names = {"-dispatch"}, defaultValue = "scheduled",
+            description = "How messages from workers to stores are delivered: scheduled, on a shared pool of " +
+                    "-dispatch-threads threads with delays scheduled, or thread, on a new thread per message " +
+                    "that sleeps out its delay (default: ${DEFAULT-VALUE})")
+    private String dispatch;
+
+    @CommandLine.Option (names = {"-dispatch-threads"}, defaultValue = "16",
+            description = "Number of threads that deliver messages with -dispatch=scheduled (default: ${DEFAULT-VALUE})")
+    private int dispatchThreads;
+
+    @CommandLine.Option (names = {"-partitions"}, defaultValue = "1",
+            description = "Number of partitions of each store, each with its own versions, locks and buffer and " +
+                    "run by its own thread (default: ${DEFAULT-VALUE})")
+    private int partitions;
+
+    @CommandLine.Option (names = {"-partitioning"}, defaultValue = "range",
+            description = "How objects are assigned to partitions: range, by equal slices of a store's objects, " +
+                    "or hash (default: ${DEFAULT-VALUE})")
+    private String partitioning;
+
+    @CommandLine.Option (names = {"-buffer"}, defaultValue = "optimized",
+            description = "Smart buffer implementation: numlink, optimized, lockfree or sharded (default: ${DEFAULT-VALUE})")
+    private String bufferType;
+
+    @CommandLine.Option (names = {"-shards"}, defaultValue = "4",
+            description = "Number of shards, each with its own thread, in a sharded buffer (default: ${DEFAULT-VALUE})")
+    private int shards;
+
+    @CommandLine.Option (names = {"-resolver"}, defaultValue = "inline",
+            description = "Where buffered transactions grab their locks once resolved: inline on the committing " +
+                    "thread, a dedicated thread per store, or a shared pool (default: ${DEFAULT-VALUE})")
+    private String resolverType;
+
+    @CommandLine.Option (names = {"-timeout"}, defaultValue = "10000",
+            description = "Time in milliseconds a transaction may wait in a store's buffer before it is aborted, " +
+                    "or 0 to wait indefinitely (default: ${DEFAULT-VALUE})")
+    private long bufferTimeout;
+
+    @CommandLine.Option (names = {"-locks"}, defaultValue = "sync",
+            description = "Object lock implementation of stores and workers: sync, atomic, or atomic-debug to also " +
+                    "check lock holders (default: ${DEFAULT-VALUE})")
+    private String lockType;
+
+    @CommandLine.Option (names = {"-lockwait"}, defaultValue = "nowait",
+            description = "What a transaction does when a lock at its worker is held: nowait to abort, wait-die " +
+                    "or wound-wait to wait for at most -lockwait-max milliseconds depending on its age. Stores " +
+                    "never wait. Needs -locks=sync (default: ${DEFAULT-VALUE})")
+    private String lockWait;
+
+    @CommandLine.Option (names = {"-lockwait-max"}, defaultValue = "10",
+            description = "Time in milliseconds a transaction may wait for one lock (default: ${DEFAULT-VALUE})")
+    private long lockWaitMax;
+
+    @CommandLine.Option (names = {"-commit-batch"}, defaultValue = "1",
+            description = "Maximum number of commits a store applies together, or 1 to apply each commit on " +
+                    "its own (default: ${DEFAULT-VALUE})")
+    private int commitBatch;
+
+    @CommandLine.Option (names = {"-commit-window"}, defaultValue = "100",
+            description = "Time in microseconds a batch of commits waits for more commits after its first one " +
+                    "(default: ${DEFAULT-VALUE})")
+    private long commitWindow;
+
+    @CommandLine.Option (names = {"-wal"},
+            description = "Directory to write each store's write-ahead log to, in a subdirectory per store. " +
+                    "No log is written if not given")
+    private Path walDir;
+
+    @CommandLine.Option (names = {"-wal-sync"}, defaultValue = "always",
+            description = "When log records are forced to disk: always before a prepare or commit returns, " +
+                    "every -wal-sync-interval milliseconds, or none (default: ${DEFAULT-VALUE})")
+    private String walSync;
+
+    @CommandLine.Option (names = {"-wal-sync-interval"}, defaultValue = "10",
+            description = "Time in milliseconds between forces of the log with -wal-sync=interval " +
+                    "(default: ${DEFAULT-VALUE})")
+    private long walSyncInterval;
+
+    @CommandLine.Option (names = {"-wal-segment"}, defaultValue = "64",
+            description = "Size in megabytes each log segment file is preallocated to (default: ${DEFAULT-VALUE})")
+    private int walSegmentMB;
+
+    @CommandLine.Option (names = {"-checkpoint-interval"}, defaultValue = "0",
+            description = "Time in milliseconds between checkpoints of each store's versions next to its log, " +
+                    "or 0 to only checkpoint when the store starts (default: ${DEFAULT-VALUE})")
+    private long checkpointInterval;
+
+    @CommandLine.Option (names = {"-recovery"}, split = ",",
+            description = "Instead of running transactions, measure checkpoint and recovery time for stores " +
+                    "with each of these numbers of objects, and write the results to recovery.csv")
+    private int[] recoveryObjects;
+
+    @CommandLine.Option (names = {"-buffer-bench"}, split = ",",
+            description = "Instead of running transactions, measure the add and remove throughput of every kind " +
+                    "of buffer with each of these numbers of threads, and write the results to buffers.csv")
+    private int[] bufferBenchThreads;
+
+    @CommandLine.Option (names = {"-lock-bench"}, split = ",",
+            description = "Instead of running transactions, measure the grab and release throughput of lock " +
+                    "tables of Sync and Atomic locks with each of these numbers of threads, and write the " +
+                    "results to locks.csv")
+    private int[] lockBenchThreads;
+
+    @CommandLine.Option (names = {"-bench-millis"}, defaultValue = "2000",
+            description = "Time in milliseconds each measurement of -buffer-bench and -lock-bench runs for " +
+                    "(default: ${DEFAULT-VALUE})")
+    private long benchMillis;
+
+    @CommandLine.Option (names = {"-recovery-tail"}, defaultValue = "100000",
+            description = "Number of log records after the checkpoint that recovery replays with -recovery " +
+                    "(default: ${DEFAULT-VALUE})")
+    private int recoveryTail;
+
+    @CommandLine.Option (names = {"-max-buffered"}, defaultValue = "0",
+            description = "Maximum number of transactions in a store's buffer, or 0 for no limit (default: ${DEFAULT-VALUE})")
+    private int maxBuffered;
+
+    @CommandLine.Option (names = {"-max-deps"}, defaultValue = "0",
+            description = "Maximum number of dependencies of the transactions in a store's buffer, or 0 for no " +
+                    "limit (default: ${DEFAULT-VALUE})")
+    private int maxBufferedDeps;
+
+    @CommandLine.Option (names = {"-admission"}, defaultValue = "reject",
+            description = "What to do with a transaction when the buffer is full: reject it, or block until " +
+                    "there is room for at most -admission-wait milliseconds (default: ${DEFAULT-VALUE})")
+    private String admission;
+
+    @CommandLine.Option (names = {"-admission-wait"}, defaultValue = "100",
+            description = "Time in milliseconds to wait for room in a full buffer with -admission=block " +
+                    "(default: ${DEFAULT-VALUE})")
+    private long admissionWait;
 
     @CommandLine.Option (names = "-verbose",
             description = "Print benchmark output to the console")
@@ -346,11 +1049,47 @@ public class Main implements Runnable {
         }
 
         String pathString = path.toString();
+
+        if (recoveryObjects != null) {
+            try (PrintWriter recoveryWriter = new PrintWriter(Paths.get(pathString, "recovery.csv").toFile())) {
+                printRowToCSV(recoveryWriter, RecoveryBenchmark.header());
+                measureRecovery().forEach(benchmark -> printRowToCSV(recoveryWriter, benchmark));
+            } catch (IOException e) {
+                System.err.println("Unexpected error when measuring recovery: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        if (bufferBenchThreads != null) {
+            try (PrintWriter buffersWriter = new PrintWriter(Paths.get(pathString, "buffers.csv").toFile())) {
+                printRowToCSV(buffersWriter, BufferBenchmark.header());
+                measureBuffers().forEach(benchmark -> printRowToCSV(buffersWriter, benchmark));
+            } catch (IOException e) {
+                System.err.println("Unexpected error when measuring buffers: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        if (lockBenchThreads != null) {
+            try (PrintWriter locksWriter = new PrintWriter(Paths.get(pathString, "locks.csv").toFile())) {
+                printRowToCSV(locksWriter, LockBenchmark.header());
+                measureLocks().forEach(benchmark -> printRowToCSV(locksWriter, benchmark));
+            } catch (IOException e) {
+                System.err.println("Unexpected error when measuring locks: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
         Path storesOutputPath = Paths.get(pathString, storefile.toString());
         Path workersOutputPath = Paths.get(pathString, workerfile.toString());
+        Path linksOutputPath = Paths.get(pathString, linkfile.toString());
 
         try (PrintWriter storesWriter = new PrintWriter(storesOutputPath.toFile());
-             PrintWriter workersWriter = new PrintWriter(workersOutputPath.toFile())) {
+             PrintWriter workersWriter = new PrintWriter(workersOutputPath.toFile());
+             PrintWriter linksWriter = new PrintWriter(linksOutputPath.toFile())) {
 
             Pair<List<Store>, List<Worker>> benchmarks =
                     this.newTest(
@@ -388,6 +1127,9 @@ public class Main implements Runnable {
                     .collect(Collectors.toList());
             printRowToCSV(workersWriter, WorkerBenchmark.header());
             workerBenchmarks.forEach(benchmark -> printRowToCSV(workersWriter, benchmark));
+
+            printRowToCSV(linksWriter, LinkBenchmark.header());
+            network.getCSVData().forEach(benchmark -> printRowToCSV(linksWriter, benchmark));
         } catch (IOException e) {
             System.err.println("Unexpected error when creating file output streams: " + e.getMessage());
         }
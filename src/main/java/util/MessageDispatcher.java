@@ -0,0 +1,21 @@
+package util;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Delivers the messages workers send to stores: prepares, commits and
+ * aborts. A message may be delivered after a simulated network delay, and on
+ * a thread other than the sender's, so it should not block for long.
+ */
+public interface MessageDispatcher {
+    /**
+     * Deliver a message after a delay.
+     *
+     * @param delayNanos The delay in nanoseconds, or 0 to deliver it as soon
+     *                   as possible.
+     * @param message The message, run on delivery.
+     * @return A future that completes once the message has run, or
+     *         completes exceptionally with what it threw.
+     */
+    CompletableFuture<Void> send(long delayNanos, Runnable message);
+}
@@ -0,0 +1,246 @@
+package util;
+
+import benchmark.Latency;
+import benchmark.LinkBenchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A model of the links from workers to stores, which gives the delay of each
+ * message a worker sends to a store. A message waits for the messages ahead
+ * of it to leave the link, is serialized and transmitted at a cost that
+ * depends on its size, and then arrives after a sampled propagation delay.
+ * Messages may overtake each other in propagation, or be delivered in the
+ * order they were sent. Either way a transaction sends its commit or abort
+ * to a store only once its prepare was delivered there, so a prepare, which
+ * carries objects and takes longer, is never overtaken by its own abort.
+ */
+public class Network {
+    /**
+     * The bytes of a message besides the objects it carries.
+     */
+    public static final int HEADER_BYTES = 32;
+
+    /**
+     * The bytes of each object a message carries: its oid and version.
+     */
+    public static final int OBJECT_BYTES = 16;
+
+    /*
+     * The state of the link from a worker to a store.
+     */
+    private static class Link {
+        final int wid;
+        final int storeIndex;
+        final LinkModel model;
+
+        /*
+         * The time the link is done transmitting the messages sent so far.
+         */
+        final AtomicLong busyUntil;
+
+        /*
+         * The time the last message sent on the link is delivered at.
+         */
+        final AtomicLong lastDelivery;
+
+        final LongAdder numMessages;
+        final LongAdder numBytes;
+
+        /*
+         * Time messages waited for the link to be free.
+         */
+        final Latency queueLatency;
+
+        /*
+         * Time from sending a message to its delivery.
+         */
+        final Latency delayLatency;
+
+        /*
+         * Completes once the last message sent on the link has run, however
+         * it ended. Only used if the network is FIFO.
+         */
+        CompletableFuture<Void> lastRun;
+
+        Link(int wid, int storeIndex, LinkModel model) {
+            this.wid = wid;
+            this.storeIndex = storeIndex;
+            this.model = model;
+            this.busyUntil = new AtomicLong(Long.MIN_VALUE);
+            this.lastDelivery = new AtomicLong(Long.MIN_VALUE);
+            this.numMessages = new LongAdder();
+            this.numBytes = new LongAdder();
+            this.queueLatency = new Latency();
+            this.delayLatency = new Latency();
+            this.lastRun = CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private final Topology topology;
+
+    /*
+     * The index of each store in the topology.
+     */
+    private final Map<Store, Integer> storeIndex;
+
+    /*
+     * If true, a message is never delivered before one sent earlier on the
+     * same link has run.
+     */
+    private final boolean fifo;
+
+    /*
+     * If true, prepares are delayed like commits and aborts; otherwise they
+     * are delivered right away.
+     */
+    private final boolean delayPrepares;
+
+    private final Map<Worker, Map<Store, Link>> links;
+
+    /**
+     * Create a network.
+     *
+     * @param topology The model of each link.
+     * @param stores The stores, in the order the topology indexes them.
+     * @param fifo Whether each link runs messages one at a time in the order
+     *             they were sent, rather than as their delays fall.
+     * @param delayPrepares Whether prepares are delayed like commits and
+     *                      aborts, rather than delivered right away.
+     */
+    public Network(Topology topology, List<Store> stores, boolean fifo, boolean delayPrepares) {
+        this.topology = topology;
+        this.storeIndex = new IdentityHashMap<>();
+        for (int i = 0; i < stores.size(); i++) {
+            storeIndex.put(stores.get(i), i);
+        }
+        this.fifo = fifo;
+        this.delayPrepares = delayPrepares;
+        this.links = new ConcurrentHashMap<>();
+    }
+
+    private Link link(Worker from, Store to) {
+        return links.computeIfAbsent(from, w -> new ConcurrentHashMap<>()).computeIfAbsent(to, s -> {
+            int index = storeIndex.getOrDefault(s, -1);
+            return new Link(from.wid, index, topology.link(from.wid, index, s.equals(from.homestore)));
+        });
+    }
+
+    /**
+     * Return the delay of a message without objects sent now from a worker
+     * to a store.
+     *
+     * @param from The sending worker.
+     * @param to The receiving store.
+     * @return The delay in nanoseconds.
+     */
+    public long delayNanos(Worker from, Store to) {
+        return delayNanos(from, to, 0);
+    }
+
+    /**
+     * Return the delay of a message sent now from a worker to a store.
+     *
+     * @param from The sending worker.
+     * @param to The receiving store.
+     * @param objects The number of objects the message carries.
+     * @return The delay in nanoseconds.
+     */
+    public long delayNanos(Worker from, Store to, int objects) {
+        Link link = link(from, to);
+        int bytes = HEADER_BYTES + OBJECT_BYTES * objects;
+        long now = System.nanoTime();
+
+        // wait for the link, then occupy it while the message is serialized and sent
+        long cost = link.model.serializeNanos(objects) + link.model.transmitNanos(bytes);
+        long start = now;
+        if (cost > 0) {
+            long busy;
+            do {
+                busy = link.busyUntil.get();
+                start = busy != Long.MIN_VALUE && busy - now > 0 ? busy : now;
+            } while (!link.busyUntil.compareAndSet(busy, start + cost));
+        }
+        long due = start + cost + link.model.sampleDelayNanos();
+
+        if (fifo) {
+            long last;
+            long arrival = due;
+            do {
+                due = arrival;
+                last = link.lastDelivery.get();
+                if (last != Long.MIN_VALUE && due - last <= 0) {
+                    // queue behind the message before
+                    due = last + 1;
+                }
+            } while (!link.lastDelivery.compareAndSet(last, due));
+        }
+
+        link.numMessages.increment();
+        link.numBytes.add(bytes);
+        link.queueLatency.record(start - now);
+        link.delayLatency.record(due - now);
+        return due - now;
+    }
+
+    /**
+     * Send a message from a worker to a store through a dispatcher, which
+     * runs it once its delay has passed. On a FIFO network the message also
+     * waits for the message sent before it on the link to have run, so the
+     * messages of a link run one at a time in the order they were sent,
+     * whichever threads the dispatcher runs them on.
+     *
+     * @param dispatcher The dispatcher that delivers the message.
+     * @param from The sending worker.
+     * @param to The receiving store.
+     * @param objects The number of objects the message carries.
+     * @param message The message, run on delivery.
+     * @return A future that completes once the message has run, or
+     *         completes exceptionally with what it threw.
+     */
+    public CompletableFuture<Void> send(MessageDispatcher dispatcher, Worker from, Store to, int objects,
+                                        Runnable message) {
+        if (!fifo) {
+            return dispatcher.send(delayNanos(from, to, objects), message);
+        }
+        Link link = link(from, to);
+        CompletableFuture<Void> done;
+        // take the delay and the place in line together, in the order sent
+        synchronized (link) {
+            CompletableFuture<Void> due = dispatcher.send(delayNanos(from, to, objects), () -> { });
+            done = CompletableFuture.allOf(due, link.lastRun).thenRun(message);
+            link.lastRun = done.handle((v, e) -> null);
+        }
+        return done;
+    }
+
+    /**
+     * @return Whether prepares are delayed like commits and aborts.
+     */
+    public boolean delaysPrepares() {
+        return delayPrepares;
+    }
+
+    /**
+     * @return The statistics of each link that carried a message.
+     */
+    public List<LinkBenchmark> getCSVData() {
+        List<LinkBenchmark> res = new ArrayList<>();
+        for (Map<Store, Link> from : links.values()) {
+            for (Link link : from.values()) {
+                res.add(new LinkBenchmark(link.wid, link.storeIndex, link.numMessages.sum(), link.numBytes.sum(),
+                        link.queueLatency, link.delayLatency));
+            }
+        }
+        Collections.sort(res);
+        return res;
+    }
+}
@@ -38,10 +38,21 @@ public class ObjectLock {
     /*
      * Return true iff the object is locked.
      */
-    private synchronized boolean isLocked() {
+    synchronized boolean isLocked() {
         return (writelockholder != null || !readlockholder.isEmpty());
     }
     
+    /*
+     * Return the IDs of the transactions that hold the lock.
+     */
+    synchronized Set<Long> holders() {
+        Set<Long> res = new HashSet<>(readlockholder);
+        if (writelockholder != null) {
+            res.add(writelockholder);
+        }
+        return res;
+    }
+
     /*
      * Return true iff the object's read lock is held by some transaction.
      */
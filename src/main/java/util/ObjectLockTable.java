@@ -1,62 +1,383 @@
 package util;
 
+import benchmark.Latency;
+
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import util.ObjectLock;
 
 public class ObjectLockTable {
+    /**
+     * The kind of lock an {@link ObjectLockTable} uses for each object.
+     */
+    public enum Kind {
+        /*
+         * A synchronized {@link ObjectLock} that keeps the IDs of its holders.
+         */
+        Sync,
+
+        /*
+         * An {@link AtomicObjectLock} that keeps its state in one word. A
+         * transaction must only release the locks it holds, which is only
+         * checked with assertions enabled.
+         */
+        Atomic,
+
+        /*
+         * An {@link AtomicObjectLock} that also checks its holders on release.
+         */
+        AtomicDebug
+    }
+
+    /**
+     * What a transaction does when a lock it asks for is held by others. A
+     * transaction is older than another if its ID is smaller, which means it
+     * started earlier. An aborted transaction is not retried with its old ID,
+     * so waiting avoids deadlock but does not keep a transaction from starving.
+     */
+    public enum WaitPolicy {
+        /*
+         * Fail right away.
+         */
+        NoWait,
+
+        /*
+         * Wait if older than every holder, fail right away otherwise.
+         */
+        WaitDie,
+
+        /*
+         * Wound the holders younger than the transaction, then wait. A wounded
+         * transaction stops waiting for a lock and keeps the locks it holds,
+         * but its worker aborts it instead of committing it if it has not
+         * decided yet, so only the tables of workers use this policy.
+         */
+        WoundWait
+    }
+
     /*
-     * A map from [oid] to the associated ObjectLock
+     * The number of monitors that waiting transactions are striped onto.
+     */
+    private static final int WAIT_STRIPES = 256;
+
+    /*
+     * A map from [oid] to the associated ObjectLock.
+     * A lock is only in the table while some transaction holds it, so the
+     * table does not grow with the number of objects ever locked. Locks are
+     * only acquired, released and evicted inside {@code compute} calls.
      */
     private ConcurrentHashMap<Long, ObjectLock> locktable;
-    
+
+    /*
+     * A map from [oid] to the associated AtomicObjectLock, used instead of
+     * {@code locktable} for atomic locks. A lock is retired before it is
+     * evicted, so a thread that finds a retired lock looks it up again.
+     * Free locks are only evicted once the table grows large.
+     */
+    private ConcurrentHashMap<Long, AtomicObjectLock> atomiclocks;
+
+    private final Kind kind;
+
+    private final WaitPolicy policy;
+
+    private final long maxWaitNanos;
+
+    /*
+     * Monitors that transactions wait on for a lock, striped by oid. Waiting
+     * is rare, so a release only notifies a stripe that has waiters.
+     */
+    private final Object[] waitstripes;
+
+    private final AtomicIntegerArray waiters;
+
+    /*
+     * Transactions wounded by an older transaction waiting for their locks.
+     */
+    private final Set<Long> wounded;
+
+    /*
+     * Time spent waiting for a lock, whether or not it was grabbed.
+     */
+    private final Latency waitLatency;
+
+    private final LongAdder numDied;
+    private final LongAdder numWounded;
+    private final LongAdder numWaitTimeout;
+
+    /*
+     * Creates the atomic lock of an object, without capturing anything so
+     * looking a lock up does not allocate a lambda.
+     */
+    private final Function<Long, AtomicObjectLock> newLock;
+
+    /*
+     * Free atomic locks stay in the table to be reused until it holds this
+     * many locks, so grabbing a hot lock does not allocate a new one.
+     */
+    private static final int MAX_IDLE_LOCKS = 1 << 16;
+
     /**
-     * Create a new ObjectLockTable
+     * Create a new ObjectLockTable of {@link Kind#Sync} locks where
+     * transactions never wait.
      */
     public ObjectLockTable() {
+        this(Kind.Sync);
+    }
+
+    /**
+     * Create a new ObjectLockTable.
+     *
+     * @param kind The kind of lock to use for each object.
+     */
+    public ObjectLockTable(Kind kind) {
+        this(kind, WaitPolicy.NoWait, 0);
+    }
+
+    /**
+     * Create a new ObjectLockTable where transactions may wait for locks.
+     *
+     * @param kind The kind of lock to use for each object. Only
+     *             {@link Kind#Sync} locks know their holders, so the other
+     *             kinds only support {@link WaitPolicy#NoWait}.
+     * @param policy What to do when a lock is held by others.
+     * @param maxWaitMillis The longest to wait for one lock.
+     */
+    public ObjectLockTable(Kind kind, WaitPolicy policy, long maxWaitMillis) {
+        if (policy != WaitPolicy.NoWait && kind != Kind.Sync) {
+            throw new IllegalArgumentException("Wait policy " + policy + " needs the holders of a lock, use Sync locks");
+        }
+        this.kind = kind;
+        this.policy = policy;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.waitstripes = new Object[WAIT_STRIPES];
+        for (int i = 0; i < WAIT_STRIPES; i++) {
+            waitstripes[i] = new Object();
+        }
+        this.waiters = new AtomicIntegerArray(WAIT_STRIPES);
+        this.wounded = ConcurrentHashMap.newKeySet();
+        this.waitLatency = new Latency();
+        this.numDied = new LongAdder();
+        this.numWounded = new LongAdder();
+        this.numWaitTimeout = new LongAdder();
         this.locktable = new ConcurrentHashMap<>();
+        this.atomiclocks = new ConcurrentHashMap<>();
+        boolean debug = kind == Kind.AtomicDebug;
+        this.newLock = oid -> new AtomicObjectLock(debug);
     }
-    
+
+    private static int stripeOf(long oid) {
+        return (int) ((oid * 0x9E3779B97F4A7C15L) >>> 32) & (WAIT_STRIPES - 1);
+    }
+
     /*
-     * Return the ObjectLock associated with object [oid].
-     * A lock is created if such lock does not exist.
+     * Grab a lock of [oid] for transaction [tid], waiting for it as allowed
+     * by the wait policy.
      */
-    private ObjectLock getLock(Long oid) {
-        ObjectLock lock = new ObjectLock(oid);
-        ObjectLock existing = locktable.putIfAbsent(oid, lock);
-        return existing == null? lock : existing;
+    private boolean lock(long tid, long oid, boolean write) {
+        if (write ? lockwrite(tid, oid) : lockread(tid, oid)) {
+            return true;
+        }
+        return policy != WaitPolicy.NoWait && waitFor(tid, oid, write);
+    }
+
+    /*
+     * Wait for a lock of [oid] held by others. Return true iff the lock was
+     * grabbed before the policy gave up. Under wound-wait, a waiting
+     * transaction gives up as soon as it is wounded itself.
+     */
+    private boolean waitFor(long tid, long oid, boolean write) {
+        int stripe = stripeOf(oid);
+        Object monitor = waitstripes[stripe];
+        long start = System.nanoTime();
+        waiters.incrementAndGet(stripe);
+        try {
+            while (true) {
+                boolean woundedAny = false;
+                synchronized (monitor) {
+                    if (write ? lockwrite(tid, oid) : lockread(tid, oid)) {
+                        return true;
+                    }
+                    if (policy == WaitPolicy.WoundWait && wounded.contains(tid)) {
+                        return false;
+                    }
+                    ObjectLock lock = locktable.get(oid);
+                    Set<Long> holders = lock == null ? Collections.emptySet() : lock.holders();
+                    for (long holder : holders) {
+                        if (holder == tid) {
+                            continue;
+                        }
+                        if (holder < tid) {
+                            if (policy == WaitPolicy.WaitDie) {
+                                // younger than a holder
+                                numDied.increment();
+                                return false;
+                            }
+                        } else if (policy == WaitPolicy.WoundWait && wounded.add(holder)) {
+                            numWounded.increment();
+                            woundedAny = true;
+                        }
+                    }
+                    if (!woundedAny) {
+                        long left = start + maxWaitNanos - System.nanoTime();
+                        if (left <= 0) {
+                            numWaitTimeout.increment();
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(monitor, left);
+                        continue;
+                    }
+                }
+                // a wounded holder may be waiting on any stripe, wake it
+                // without holding our own monitor
+                signalAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiters.decrementAndGet(stripe);
+            waitLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * Wake up the transactions waiting for a lock of [oid].
+     */
+    private void signal(long oid) {
+        int stripe = stripeOf(oid);
+        if (waiters.get(stripe) > 0) {
+            synchronized (waitstripes[stripe]) {
+                waitstripes[stripe].notifyAll();
+            }
+        }
+    }
+
+    /*
+     * Wake up the transactions waiting for any lock.
+     */
+    private void signalAll() {
+        for (int stripe = 0; stripe < WAIT_STRIPES; stripe++) {
+            if (waiters.get(stripe) > 0) {
+                synchronized (waitstripes[stripe]) {
+                    waitstripes[stripe].notifyAll();
+                }
+            }
+        }
+    }
+
+    /*
+     * Grab the lock of [oid] for transaction [tid] in {@code atomiclocks}.
+     */
+    private boolean lockatomic(long tid, long oid, boolean write) {
+        while (true) {
+            AtomicObjectLock lock = atomiclocks.get(oid);
+            if (lock == null) {
+                lock = atomiclocks.computeIfAbsent(oid, newLock);
+            }
+            if (write ? lock.lockwrite(tid) : lock.lockread(tid)) {
+                return true;
+            }
+            if (!lock.isRetired()) {
+                return false;
+            }
+            // Evicted under us, help remove it and try the new one
+            atomiclocks.remove(oid, lock);
+        }
+    }
+
+    /*
+     * Release the lock of [oid] for transaction [tid] in {@code atomiclocks},
+     * evicting it if it is free.
+     */
+    private void releaseatomic(long tid, long oid, boolean write) {
+        // A held lock is never retired, so it is still in the table
+        AtomicObjectLock lock = atomiclocks.get(oid);
+        if (lock == null) {
+            throw new IllegalStateException("Transaction " + tid + " does not hold the lock of " + oid);
+        }
+        boolean free = write ? lock.releasewrite(tid) : lock.releaseread(tid);
+        if (free && atomiclocks.size() > MAX_IDLE_LOCKS && lock.retire()) {
+            atomiclocks.remove(oid, lock);
+        }
     }
     
     /*
      * Grab a write lock of [oid] for transaction [tid].
      */
-    private boolean lockwrite(Long tid, Long oid) {
-        ObjectLock lock = this.getLock(oid);
-        return lock.lockwrite(tid);
+    private boolean lockwrite(long tid, long oid) {
+        if (kind != Kind.Sync) {
+            return lockatomic(tid, oid, true);
+        }
+        boolean[] res = {false};
+        locktable.compute(oid, (k, lock) -> {
+            if (lock == null) {
+                lock = new ObjectLock(oid);
+            }
+            res[0] = lock.lockwrite(tid);
+            return lock.isLocked() ? lock : null;
+        });
+        return res[0];
     }
     
     /*
      * Release the write lock of [oid] for transaction [tid].
      */
-    private void releasewrite(Long tid, Long oid) {
-        ObjectLock lock = this.getLock(oid);
-        lock.releasewrite(tid);
+    private void releasewrite(long tid, long oid) {
+        if (kind != Kind.Sync) {
+            releaseatomic(tid, oid, true);
+            return;
+        }
+        locktable.computeIfPresent(oid, (k, lock) -> {
+            lock.releasewrite(tid);
+            return lock.isLocked() ? lock : null;
+        });
     }
     
     /*
      * Grab a read lock of [oid] for transaction [tid].
      */
-    private boolean lockread(Long tid, Long oid) {
-        ObjectLock lock = this.getLock(oid);
-        return lock.lockread(tid);
+    private boolean lockread(long tid, long oid) {
+        if (kind != Kind.Sync) {
+            return lockatomic(tid, oid, false);
+        }
+        boolean[] res = {false};
+        locktable.compute(oid, (k, lock) -> {
+            if (lock == null) {
+                lock = new ObjectLock(oid);
+            }
+            res[0] = lock.lockread(tid);
+            return lock.isLocked() ? lock : null;
+        });
+        return res[0];
     }
     
     /*
      * Release the read lock of [oid] for transaction [tid].
      */
-    private void releaseread(Long tid, Long oid) {
-        ObjectLock lock = this.getLock(oid);
-        lock.releaseread(tid);
+    private void releaseread(long tid, long oid) {
+        if (kind != Kind.Sync) {
+            releaseatomic(tid, oid, false);
+            return;
+        }
+        locktable.computeIfPresent(oid, (k, lock) -> {
+            lock.releaseread(tid);
+            return lock.isLocked() ? lock : null;
+        });
+    }
+
+    /**
+     * Get the number of locks in the table. With {@link Kind#Sync} locks this
+     * is the number of objects that are currently locked; atomic locks also
+     * stay in the table for a while after they are released.
+     *
+     * @return The number of locks in the table.
+     */
+    public int size() {
+        return locktable.size() + atomiclocks.size();
     }
 
     /**
@@ -75,40 +396,54 @@ public class ObjectLockTable {
      *         grabbed
      */
     public boolean grabLock(Set<ObjectVN> reads, Set<ObjectVN> writes, Long tid) {
-        // Generate oid set
-        Set<Long> idset = new HashSet<>();
-        Set<Long> writeid = new HashSet<>();
-
-        for (ObjectVN obj : reads) {
-            idset.add(obj.oid);
-        }
-
-        for (ObjectVN obj : writes) {
-            idset.add(obj.oid);
-            writeid.add(obj.oid);
+        return grabLock(LockRequest.of(reads, writes), tid);
+    }
 
+    /**
+     * Grab the locks of a transaction in the order of its oids. Return
+     * {@code true} if all locks are successfully grabbed, and {@code false}
+     * otherwise, in which case exactly the locks grabbed so far are released.
+     *
+     * With atomic locks this allocates nothing but the boxed oids it looks
+     * locks up by. {@link Kind#Sync} locks are created and evicted with each
+     * grab and release, and keep their holders as boxed IDs, so they
+     * allocate per object.
+     *
+     * @param request The objects to lock.
+     * @param tid ID of the transaction
+     * @return A boolean in accord with whether all locks are successfully
+     *         grabbed
+     */
+    public boolean grabLock(LockRequest request, long tid) {
+        for (int i = 0; i < request.size(); i++) {
+            long oid = request.oid(i);
+            if (!lock(tid, oid, request.isWrite(i))) {
+                release(request, i, tid);
+                if (policy == WaitPolicy.WoundWait) {
+                    // the transaction aborts, so a wound no longer matters
+                    wounded.remove(tid);
+                }
+                return false;
+            }
         }
+        return true;
+    }
 
-        // Sort oids to avoid deadlock
-        List<Long> list = new ArrayList<>(idset);
-        Collections.sort(list);
-        
-        for (Long oid : list) {
-            if (writeid.contains(oid)){
-                if (!this.lockwrite(tid, oid)) {
-                    releaseLock(reads, writes, tid);
-                    return false;
-                }
+    /*
+     * Release the locks of the first [count] objects of [request] for
+     * transaction [tid].
+     */
+    private void release(LockRequest request, int count, long tid) {
+        for (int i = 0; i < count; i++) {
+            if (request.isWrite(i)) {
+                releasewrite(tid, request.oid(i));
             } else {
-                if (!this.lockread(tid, oid)) {
-                    releaseLock(reads, writes, tid);
-                    return false;
-                }
+                releaseread(tid, request.oid(i));
+            }
+            if (policy != WaitPolicy.NoWait) {
+                signal(request.oid(i));
             }
-
         }
-        
-        return true;
     }
     
     /*
@@ -124,11 +459,47 @@ public class ObjectLockTable {
      * @param tid tid ID of the transaction
      */
     public void releaseLock(Set<ObjectVN> reads, Set<ObjectVN> writes, Long tid) {
-        for (ObjectVN read : reads) {
-            releaseread(tid, read.oid);
-        }
-        for (ObjectVN write : writes) {
-            releasewrite(tid, write.oid);
+        releaseLock(LockRequest.of(reads, writes), tid);
+    }
+
+    /**
+     * Release the locks a transaction grabbed with
+     * {@link ObjectLockTable#grabLock(LockRequest, long)}.
+     *
+     * @param request The objects to unlock.
+     * @param tid ID of the transaction
+     */
+    public void releaseLock(LockRequest request, long tid) {
+        release(request, request.size(), tid);
+        if (policy == WaitPolicy.WoundWait) {
+            wounded.remove(tid);
         }
     }
+
+    /**
+     * Check whether a transaction was wounded by an older transaction waiting
+     * for one of its locks, in which case it should abort if it still can.
+     *
+     * @param tid ID of the transaction
+     * @return {@code true} iff the transaction was wounded.
+     */
+    public boolean isWounded(long tid) {
+        return wounded.contains(tid);
+    }
+
+    public Latency getWaitLatency() {
+        return waitLatency;
+    }
+
+    public int getNumDied() {
+        return (int) numDied.sum();
+    }
+
+    public int getNumWounded() {
+        return (int) numWounded.sum();
+    }
+
+    public int getNumWaitTimeout() {
+        return (int) numWaitTimeout.sum();
+    }
 }
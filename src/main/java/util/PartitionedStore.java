@@ -0,0 +1,391 @@
+package util;
+
+import benchmark.StoreBenchmark;
+import smartbuffer.ResolutionListener;
+import smartbuffer.ResolutionListener.Reason;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * A store split into partitions by oid, each a {@link StoreSB} with its own
+ * versions, locks and buffer, and owned by a single thread that runs all of
+ * its prepares, commits and aborts. Workers see one store: a transaction
+ * that spans partitions prepares at each of them, and prepares here once
+ * all of them have prepared.
+ *
+ * A partition's thread runs its work to completion. A partition never waits
+ * for a lock, since the locks of a {@link StoreSB} are always NoWait, and a
+ * partition must not apply commits on a group commit thread.
+ */
+public class PartitionedStore extends Store {
+    /**
+     * How objects are assigned to partitions.
+     */
+    public enum Partitioning {
+        /*
+         * By a hash of the oid.
+         */
+        Hash,
+
+        /*
+         * By equal slices of the store's initial oid range. Objects outside
+         * the range go by hash.
+         */
+        Range
+    }
+
+    /**
+     * The most partitions a store can have.
+     */
+    public static final int MAX_PARTITIONS = 64;
+
+    private final StoreSB[] partitions;
+
+    /*
+     * The thread that runs the work of each partition.
+     */
+    private final ExecutorService[] owners;
+
+    private final Partitioning partitioning;
+
+    /*
+     * The initial oid range of the store, [base, base + size).
+     */
+    private final long base;
+    private final long size;
+
+    /*
+     * The partitions each pending transaction prepared at, as a bitmap.
+     */
+    private final ConcurrentHashMap<Long, Long> touched;
+
+    /*
+     * The objects each pending transaction creates, to tell the workers
+     * about once it commits.
+     */
+    private final ConcurrentHashMap<Long, List<ObjectVN>> creates;
+
+    private Collection<Worker> workers;
+
+    /**
+     * Create a store from its partitions. Partition i holds the objects
+     * {@link #partitionOf} assigns to it.
+     *
+     * @param partitions The partitions, which this store takes over.
+     * @param partitioning How objects are assigned to partitions.
+     * @param base The first oid of the store's initial range.
+     * @param size The number of objects in the store's initial range.
+     */
+    public PartitionedStore(List<StoreSB> partitions, Partitioning partitioning, long base, long size) {
+        if (partitions.isEmpty() || partitions.size() > MAX_PARTITIONS) {
+            throw new IllegalArgumentException("A store has between 1 and " + MAX_PARTITIONS + " partitions");
+        }
+        for (StoreSB partition : partitions) {
+            if (partition.hasGroupCommit()) {
+                throw new IllegalArgumentException("A partition applies its own commits, without group commit");
+            }
+        }
+        this.partitions = partitions.toArray(new StoreSB[0]);
+        this.owners = new ExecutorService[this.partitions.length];
+        for (int p = 0; p < owners.length; p++) {
+            String name = "partition-" + p;
+            owners[p] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+            // creates are announced by this store, as its own objects
+            this.partitions[p].setWorkers(Collections.emptyList());
+        }
+        this.partitioning = partitioning;
+        this.base = base;
+        this.size = size;
+        this.touched = new ConcurrentHashMap<>();
+        this.creates = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Return the partition an object belongs to.
+     *
+     * @param oid The object.
+     * @param numPartitions The number of partitions.
+     * @param partitioning How objects are assigned to partitions.
+     * @param base The first oid of the store's initial range.
+     * @param size The number of objects in the store's initial range.
+     * @return The index of the partition.
+     */
+    public static int partitionOf(long oid, int numPartitions, Partitioning partitioning, long base, long size) {
+        if (partitioning == Partitioning.Range && oid >= base && oid < base + size) {
+            return (int) ((oid - base) * numPartitions / size);
+        }
+        // spread sequential oids over all partitions
+        long mixed = oid * 0x9E3779B97F4A7C15L;
+        return (int) Long.remainderUnsigned(mixed >>> 32, numPartitions);
+    }
+
+    /**
+     * Create the version table of a partition, with version 0 of the
+     * objects of the store's initial range that belong to it.
+     *
+     * @param partition The index of the partition.
+     * @param numPartitions The number of partitions.
+     * @param partitioning How objects are assigned to partitions.
+     * @param base The first oid of the store's initial range.
+     * @param size The number of objects in the store's initial range.
+     * @return The version table.
+     */
+    public static VersionTable newVersionTable(int partition, int numPartitions, Partitioning partitioning,
+                                               long base, int size) {
+        if (partitioning == Partitioning.Range) {
+            // the oids whose (oid - base) * numPartitions / size is partition
+            long lo = base + ((long) size * partition + numPartitions - 1) / numPartitions;
+            long hi = base + ((long) size * (partition + 1) + numPartitions - 1) / numPartitions;
+            return VersionTable.filled(lo, (int) (hi - lo), 0);
+        }
+        VersionTable versions = new VersionTable();
+        for (long oid = base; oid < base + size; oid++) {
+            if (partitionOf(oid, numPartitions, partitioning, base, size) == partition) {
+                versions.set(oid, 0);
+            }
+        }
+        return versions;
+    }
+
+    private int partitionOf(long oid) {
+        return partitionOf(oid, partitions.length, partitioning, base, size);
+    }
+
+    /*
+     * Split [objects] by partition.
+     */
+    private Map<Integer, Set<ObjectVN>> split(Set<ObjectVN> objects) {
+        Map<Integer, Set<ObjectVN>> res = new HashMap<>();
+        for (ObjectVN object : objects) {
+            res.computeIfAbsent(partitionOf(object.oid), p -> new HashSet<>()).add(object);
+        }
+        return res;
+    }
+
+    /*
+     * Run [action] for each partition in [mask] on its thread, and wait for
+     * all of them.
+     */
+    private void runOn(long mask, IntConsumer action) {
+        List<Future<?>> done = new ArrayList<>(Long.bitCount(mask));
+        for (long m = mask; m != 0; m &= m - 1) {
+            int p = Long.numberOfTrailingZeros(m);
+            done.add(owners[p].submit(() -> action.accept(p)));
+        }
+        try {
+            for (Future<?> f : done) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void prepare(Worker worker, long tid, Set<ObjectVN> reads, Set<ObjectVN> writes, ResolutionListener listener) {
+        Map<Integer, Set<ObjectVN>> partReads = split(reads);
+        Map<Integer, Set<ObjectVN>> partWrites = split(writes);
+        long mask = 0;
+        for (int p : partReads.keySet()) {
+            mask |= 1L << p;
+        }
+        for (int p : partWrites.keySet()) {
+            mask |= 1L << p;
+        }
+        touched.put(tid, mask);
+        for (ObjectVN write : writes) {
+            if (write.vnum == 0) {
+                creates.computeIfAbsent(tid, t -> new ArrayList<>()).add(write);
+            }
+        }
+
+        int n = Long.bitCount(mask);
+        if (n == 0) {
+            listener.onResolve(tid, true, Reason.Prepared);
+            return;
+        }
+        ResolutionListener each = listener;
+        if (n > 1) {
+            // prepared once every partition is, rejected on the first one that is not
+            AtomicInteger remaining = new AtomicInteger(n);
+            AtomicBoolean resolved = new AtomicBoolean();
+            each = (t, outcome, reason) -> {
+                if (!outcome) {
+                    if (resolved.compareAndSet(false, true)) {
+                        listener.onResolve(t, false, reason);
+                    }
+                } else if (remaining.decrementAndGet() == 0 && resolved.compareAndSet(false, true)) {
+                    listener.onResolve(t, true, reason);
+                }
+            };
+        }
+        ResolutionListener partListener = each;
+        for (long m = mask; m != 0; m &= m - 1) {
+            int p = Long.numberOfTrailingZeros(m);
+            Set<ObjectVN> r = partReads.getOrDefault(p, Collections.emptySet());
+            Set<ObjectVN> w = partWrites.getOrDefault(p, Collections.emptySet());
+            owners[p].execute(() -> partitions[p].prepare(worker, tid, r, w, partListener));
+        }
+    }
+
+    @Override
+    public void abort(long tid) {
+        creates.remove(tid);
+        Long mask = touched.remove(tid);
+        if (mask != null) {
+            runOn(mask, p -> partitions[p].abort(tid));
+        }
+    }
+
+    @Override
+    public void commit(Worker worker, long tid) {
+        Long mask = touched.remove(tid);
+        if (mask == null) {
+            return;
+        }
+        runOn(mask, p -> partitions[p].commit(worker, tid));
+
+        // notify all other workers of the objects created
+        List<ObjectVN> created = creates.remove(tid);
+        if (created != null && workers != null) {
+            for (Worker w : workers) {
+                if (w != worker) {
+                    for (ObjectVN object : created) {
+                        w.addObject(this, object);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getVersion(long oid) {
+        return partitions[partitionOf(oid)].getVersion(oid);
+    }
+
+    @Override
+    public boolean grabLock(long tid) {
+        Long mask = touched.get(tid);
+        if (mask == null) {
+            return false;
+        }
+        for (long m = mask; m != 0; m &= m - 1) {
+            if (!partitions[Long.numberOfTrailingZeros(m)].grabLock(tid)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void setWorkers(Collection<Worker> workers) {
+        this.workers = workers;
+    }
+
+    @Override
+    public int pending() {
+        int res = 0;
+        for (StoreSB partition : partitions) {
+            res += partition.pending();
+        }
+        return res;
+    }
+
+    @Override
+    public Set<Long> pendingkey() {
+        Set<Long> res = new HashSet<>();
+        for (StoreSB partition : partitions) {
+            res.addAll(partition.pendingkey());
+        }
+        return res;
+    }
+
+    @Override
+    public int getNumLink() {
+        int res = 0;
+        for (StoreSB partition : partitions) {
+            res += partition.getNumLink();
+        }
+        return res;
+    }
+
+    @Override
+    public StoreBenchmark getCSVData() {
+        List<StoreBenchmark> parts = new ArrayList<>();
+        for (StoreSB partition : partitions) {
+            parts.add(partition.getCSVData());
+        }
+        return StoreBenchmark.merge(parts);
+    }
+
+    /**
+     * @return The partitions of this store.
+     */
+    public List<StoreSB> getPartitions() {
+        List<StoreSB> res = new ArrayList<>();
+        Collections.addAll(res, partitions);
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Store has %d partitions with %d pending transactions and %d transactions in buffer. " +
+                "Store aborted %d txns because of a lock conflict and %d txns because of a version conflict.",
+                partitions.length, pending(), getNumLink(), getNumAbortLock(), getNumAbortVc());
+    }
+
+    @Override
+    public void setversion(ObjectVN object) {
+        partitions[partitionOf(object.oid)].setversion(object);
+    }
+
+    @Override
+    public void addpending(long tid) {
+        partitions[0].addpending(tid);
+        touched.merge(tid, 1L, (a, b) -> a | b);
+    }
+
+    @Override
+    public int getNumAborts() {
+        return getNumAbortLock() + getNumAbortVc();
+    }
+
+    @Override
+    public int getNumAbortLock() {
+        int res = 0;
+        for (StoreSB partition : partitions) {
+            res += partition.getNumAbortLock();
+        }
+        return res;
+    }
+
+    @Override
+    public int getNumAbortVc() {
+        int res = 0;
+        for (StoreSB partition : partitions) {
+            res += partition.getNumAbortVc();
+        }
+        return res;
+    }
+}
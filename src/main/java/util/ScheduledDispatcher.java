@@ -0,0 +1,63 @@
+package util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers messages on a fixed pool of threads shared by all workers. A
+ * delayed message waits in the pool's delay queue rather than on a sleeping
+ * thread, so a delay costs no thread while it runs out, and messages are
+ * taken from the queue in the order they fall due.
+ */
+public class ScheduledDispatcher implements MessageDispatcher {
+    private static class Default {
+        static final ScheduledDispatcher INSTANCE =
+                new ScheduledDispatcher(Runtime.getRuntime().availableProcessors());
+    }
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Create a dispatcher.
+     *
+     * @param threads The number of threads that run messages.
+     */
+    public ScheduledDispatcher(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread t = new Thread(r, "dispatch-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return A dispatcher with a thread per processor, shared by the
+     *         workers not given one of their own.
+     */
+    public static ScheduledDispatcher getDefault() {
+        return Default.INSTANCE;
+    }
+
+    @Override
+    public CompletableFuture<Void> send(long delayNanos, Runnable message) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Runnable deliver = () -> {
+            try {
+                message.run();
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            }
+        };
+        if (delayNanos <= 0) {
+            scheduler.execute(deliver);
+        } else {
+            scheduler.schedule(deliver, delayNanos, TimeUnit.NANOSECONDS);
+        }
+        return done;
+    }
+}
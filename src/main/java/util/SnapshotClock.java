@@ -0,0 +1,144 @@
+package util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The timestamps that order commits and snapshots across the stores of a
+ * {@link StoreMV} deployment. A committing transaction draws one commit
+ * timestamp for all of its stores. A snapshot is taken at the stable
+ * timestamp: the largest one below every commit that some store has not
+ * installed yet, so a snapshot sees all of a transaction's writes or none.
+ *
+ * The clock also tracks the active snapshots, so stores know the oldest
+ * timestamp anyone can still read at.
+ */
+public class SnapshotClock {
+    /*
+     * A commit timestamp, and the number of stores yet to install it.
+     */
+    private static class Commit {
+        final long timestamp;
+        final AtomicInteger remaining;
+
+        Commit(long timestamp, int stores) {
+            this.timestamp = timestamp;
+            this.remaining = new AtomicInteger(stores);
+        }
+    }
+
+    /*
+     * The last commit timestamp drawn. Guarded by this.
+     */
+    private long last;
+
+    /*
+     * The commit timestamps not installed at every store yet. Guarded by
+     * this.
+     */
+    private final TreeSet<Long> inflight;
+
+    /*
+     * The number of active snapshots at each timestamp. Guarded by this.
+     */
+    private final TreeMap<Long, Integer> active;
+
+    /*
+     * The commits in flight, by tid.
+     */
+    private final Map<Long, Commit> commits;
+
+    public SnapshotClock() {
+        this.inflight = new TreeSet<>();
+        this.active = new TreeMap<>();
+        this.commits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Draw the commit timestamp of a transaction before it commits.
+     *
+     * @param tid The ID of the transaction.
+     * @param stores The number of stores the transaction commits at, each
+     *               of which calls {@link #installed(long)} once.
+     * @return The commit timestamp.
+     */
+    public long startCommit(long tid, int stores) {
+        long timestamp;
+        synchronized (this) {
+            timestamp = ++last;
+            inflight.add(timestamp);
+        }
+        commits.put(tid, new Commit(timestamp, stores));
+        return timestamp;
+    }
+
+    /**
+     * Return the commit timestamp of a transaction. A transaction that did
+     * not start its commit through the clock commits at a single store.
+     *
+     * @param tid The ID of the transaction.
+     * @return The commit timestamp.
+     */
+    public long commitTimestamp(long tid) {
+        Commit commit = commits.get(tid);
+        return commit != null ? commit.timestamp : startCommit(tid, 1);
+    }
+
+    /**
+     * Record that a store installed the writes of a transaction.
+     *
+     * @param tid The ID of the transaction.
+     */
+    public void installed(long tid) {
+        Commit commit = commits.get(tid);
+        if (commit == null || commit.remaining.decrementAndGet() > 0) {
+            return;
+        }
+        commits.remove(tid);
+        synchronized (this) {
+            inflight.remove(commit.timestamp);
+        }
+    }
+
+    /*
+     * The largest timestamp every store has installed all commits up to.
+     */
+    private long stable() {
+        return inflight.isEmpty() ? last : inflight.first() - 1;
+    }
+
+    /**
+     * Start a snapshot at the stable timestamp. Versions it can read are
+     * kept until {@link #endSnapshot(long)}.
+     *
+     * @return The timestamp of the snapshot.
+     */
+    public synchronized long beginSnapshot() {
+        long timestamp = stable();
+        active.merge(timestamp, 1, Integer::sum);
+        return timestamp;
+    }
+
+    /**
+     * End a snapshot.
+     *
+     * @param timestamp The timestamp returned by {@link #beginSnapshot()}.
+     */
+    public synchronized void endSnapshot(long timestamp) {
+        active.computeIfPresent(timestamp, (t, n) -> n == 1 ? null : n - 1);
+    }
+
+    /**
+     * Return the oldest timestamp an active or future snapshot can read at.
+     * Of the versions of an object at or before it, only the newest needs
+     * to be kept.
+     *
+     * @return The horizon.
+     */
+    public synchronized long horizon() {
+        return active.isEmpty() ? stable() : Math.min(active.firstKey(), stable());
+    }
+}
@@ -2,19 +2,37 @@ package util;
 
 import benchmark.CSVData;
 import benchmark.StoreBenchmark;
+import smartbuffer.ResolutionListener;
 
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 
 public abstract class Store {
     /**
-     * Prepare for a transaction. This method will return a {@code Future} that 
-     * resolves with {@code true} if the transaction prepares successfully, and 
-     * {@code false} if the transaction has a version conflict.
+     * Prepare for a transaction. The listener is notified with {@code true}
+     * if the transaction prepares successfully, and {@code false} if the
+     * transaction has a version conflict or a lock conflict.
      * 
      * If there exists any version number that is unknown to the store, the 
-     * transaction is added to the SmartBuffer.
+     * transaction is added to the SmartBuffer, and the listener is notified
+     * once the buffer resolves it.
+     * 
+     * @param tid The ID of the transaction.
+     * @param reads A set of objects that the transaction reads.
+     * @param writes A set of objects that the transaction writes.
+     * @param listener The listener to notify exactly once with the prepare
+     *                 result. It may be called before this method returns.
+     */
+    public abstract void prepare(Worker worker, long tid, Set<ObjectVN> reads, Set<ObjectVN> writes, ResolutionListener listener);
+
+    /**
+     * Prepare for a transaction. This method will return a {@code Future} that 
+     * resolves with {@code true} if the transaction prepares successfully, and 
+     * {@code false} otherwise.
+     *
+     * See {@link Store#prepare(Worker, long, Set, Set, ResolutionListener)}.
      * 
      * @param tid The ID of the transaction.
      * @param reads A set of objects that the transaction reads.
@@ -22,7 +40,11 @@ public abstract class Store {
      * @return A {@code Future} that resolves in accord with the transaction 
      *           prepare result.
      */
-    public abstract Future<Boolean> prepare(Worker worker, long tid, Set<ObjectVN> reads, Set<ObjectVN> writes);
+    public Future<Boolean> prepare(Worker worker, long tid, Set<ObjectVN> reads, Set<ObjectVN> writes) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        prepare(worker, tid, reads, writes, (t, outcome, reason) -> future.complete(outcome));
+        return future;
+    }
     
     /**
      * Abort a transaction.
@@ -43,9 +65,10 @@ public abstract class Store {
      * Return the current version of a object.
      * 
      * @param oid ID of the object
-     * @return The version number of the object.
+     * @return The version number of the object, or
+     *         {@link VersionTable#ABSENT} if the store has not seen it.
      */
-    public abstract Long getVersion(long oid);
+    public abstract long getVersion(long oid);
 
     /**
      * Grab the lock for objects that a transaction reads and writes on the 
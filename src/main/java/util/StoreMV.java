@@ -0,0 +1,103 @@
+package util;
+
+import benchmark.StoreBenchmark;
+import smartbuffer.SmartBuffer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A store that keeps the values of the objects, not only their versions: a
+ * bounded chain of committed values per object, each at the commit
+ * timestamp of its transaction. Update transactions prepare and commit as in
+ * {@link StoreSB}. Read-only transactions read a consistent snapshot at a
+ * timestamp instead, without locking or validation.
+ */
+public class StoreMV extends StoreSB {
+    private final SnapshotClock clock;
+
+    private final VersionChains chains;
+
+    /*
+     * The size of the value of every version.
+     */
+    private final int valueSize;
+
+    private final LongAdder numSnapshotReads;
+
+    /*
+     * The number of snapshot reads whose version was already collected.
+     */
+    private final LongAdder numSnapshotTooOld;
+
+    /**
+     * Create a new instance of this class.
+     *
+     * @param buffer A buffer to use for transactions with pending
+     *               dependencies. This should be an empty buffer.
+     * @param lastversion The initial versions of the objects.
+     * @param WITH_BUFFER Whether to buffer transactions with pending
+     *                    dependencies.
+     * @param clock The clock shared by the stores that transactions span.
+     * @param valueSize The size in bytes of the value of every version.
+     * @param maxVersions The most versions kept of an object.
+     * @param lockKind The kind of object lock.
+     */
+    public StoreMV(SmartBuffer buffer, VersionTable lastversion, boolean WITH_BUFFER, SnapshotClock clock,
+                   int valueSize, int maxVersions, ObjectLockTable.Kind lockKind) {
+        super(buffer, lastversion, WITH_BUFFER, lockKind);
+        this.clock = clock;
+        this.valueSize = valueSize;
+        this.chains = new VersionChains(new byte[valueSize], maxVersions);
+        this.numSnapshotReads = new LongAdder();
+        this.numSnapshotTooOld = new LongAdder();
+    }
+
+    @Override
+    protected void install(long tid, LockRequest locks) {
+        if (locks.numWrites() > 0) {
+            long timestamp = clock.commitTimestamp(tid);
+            long horizon = clock.horizon();
+            for (int i = 0; i < locks.size(); i++) {
+                if (locks.isWrite(i)) {
+                    byte[] value = new byte[valueSize];
+                    Arrays.fill(value, (byte) locks.vnum(i));
+                    chains.install(locks.oid(i), locks.vnum(i), timestamp, value, horizon);
+                }
+            }
+        }
+        clock.installed(tid);
+    }
+
+    /**
+     * Read the value of an object in a snapshot.
+     *
+     * @param oid The object.
+     * @param timestamp The timestamp of the snapshot, from
+     *                  {@link SnapshotClock#beginSnapshot()}.
+     * @return A copy of the value, or {@code null} if the version the
+     *         snapshot reads was already collected.
+     */
+    public byte[] read(long oid, long timestamp) {
+        numSnapshotReads.increment();
+        VersionChains.Version version = chains.read(oid, timestamp);
+        if (version == null) {
+            numSnapshotTooOld.increment();
+            return null;
+        }
+        return version.value.clone();
+    }
+
+    /**
+     * @return The version chains of this store.
+     */
+    public VersionChains getChains() {
+        return chains;
+    }
+
+    @Override
+    public StoreBenchmark getCSVData() {
+        return super.getCSVData().withVersions(numSnapshotReads.sum(), numSnapshotTooOld.sum(),
+                chains.getNumVersions(), chains.getNumBytes(), chains.getNumCollected());
+    }
+}
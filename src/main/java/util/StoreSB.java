@@ -1,13 +1,24 @@
 package util;
 
 import benchmark.CSVData;
+import benchmark.Latency;
 import benchmark.StoreBenchmark;
+import smartbuffer.AdmissionPolicy;
+import smartbuffer.ResolutionListener;
+import smartbuffer.ResolutionListener.Reason;
 import smartbuffer.SmartBuffer;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Future;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
 
 public class StoreSB extends Store {
     private SmartBuffer buffer;
@@ -15,17 +26,18 @@ public class StoreSB extends Store {
     /*
      * A map from an object to the last version of the object that the store has seen.
      */
-    private HashMap<Long, Long> lastversion;
+    private VersionTable lastversion;
 
     /*
-     * A map from [tid] to objects that transaction writes for transactions waiting for processing.
+     * A map from [tid] to the objects that transaction reads and writes for
+     * transactions waiting for processing, one entry per object.
      */
-    private ConcurrentHashMap<Long, HashSet<ObjectVN>> pending;
+    private ConcurrentHashMap<Long, LockRequest> pending;
 
     /*
-     * A map from [tid] to objects that transaction reads for transactions waiting for processing.
+     * Pending transactions that grabbed their locks here.
      */
-    private ConcurrentHashMap<Long, HashSet<ObjectVN>> pendingread;
+    private Set<Long> prepared;
 
     /*
      * A locktable for object-level lock.
@@ -37,97 +49,491 @@ public class StoreSB extends Store {
      */
     private Collection<Worker> workers;
 
-    private int numAbortLock;
-    private int numAbortVc;
+    private LongAdder numAbortLock;
+    private LongAdder numAbortVc;
+
+    /*
+     * Time spent applying commits, not including resolution of the buffered
+     * transactions they unblock when those are deferred to a resolver. With
+     * group commit this includes waiting for the batch.
+     */
+    private Latency commitLatency;
+
+    /*
+     * The number of commits applied together in each group commit batch.
+     */
+    private Latency commitBatch;
+
+    /*
+     * Commits waiting for the group commit thread, or null if every commit
+     * is applied on its own thread.
+     */
+    private BlockingQueue<PendingCommit> commitqueue;
+
+    private int maxCommitBatch;
+    private long commitWindowNanos;
+
+    /*
+     * Time from adding a transaction to the buffer until the buffer resolves
+     * it, including the lock grab of transactions that leave it prepared.
+     */
+    private Latency bufferLatency;
+
+    /*
+     * Time from receiving a prepare request until it is resolved.
+     */
+    private Latency prepareLatency;
+
+    /*
+     * Bounds the number of transactions and dependencies in the buffer.
+     */
+    private AdmissionPolicy admission;
+
+    /*
+     * The log prepares and commits are written to, or null.
+     */
+    private WriteAheadLog log;
+
+    /*
+     * Logging a record and making the change it records hold this shared,
+     * so a checkpoint, which holds it exclusively while it picks its LSN,
+     * sees either both or neither.
+     */
+    private StampedLock checkpointing;
+
+    /*
+     * Time each checkpoint took, and the size of the last one.
+     */
+    private Latency checkpointLatency;
+    private volatile long checkpointBytes;
 
     private boolean WITH_BUFFER;
 
     /**
-     * Create a new instance of this class.
+     * Create a new instance of this class. This is public so the buffers'
+     * shared test suite, in the smartbuffer package, can build a store for
+     * each of them.
      *
      * @param buffer A buffer to use for transactions with pending dependencies.
      *               This should be an empty buffer.
      */
-    StoreSB(SmartBuffer buffer) {
+    public StoreSB(SmartBuffer buffer) {
         this.buffer = buffer;
-        this.lastversion = new HashMap<>();
+        this.lastversion = new VersionTable();
         this.pending = new ConcurrentHashMap<>();
-        this.pendingread = new ConcurrentHashMap<>();
+        this.prepared = ConcurrentHashMap.newKeySet();
         this.locktable = new ObjectLockTable();
 
-        this.numAbortLock = 0;
-        this.numAbortVc = 0;
+        this.numAbortLock = new LongAdder();
+        this.numAbortVc = new LongAdder();
+        this.commitLatency = new Latency();
+        this.commitBatch = new Latency();
+        this.checkpointing = new StampedLock();
+        this.checkpointLatency = new Latency();
+        this.bufferLatency = new Latency();
+        this.prepareLatency = new Latency();
+        this.admission = AdmissionPolicy.unbounded();
+    }
+
+    StoreSB(SmartBuffer buffer, VersionTable lastversion, boolean WITH_BUFFER){
+        this(buffer, lastversion, WITH_BUFFER, ObjectLockTable.Kind.Sync);
     }
 
-    StoreSB(SmartBuffer buffer, HashMap<Long, Long> lastversion, boolean WITH_BUFFER){
+    /*
+     * Create a store whose object locks are of kind [lockKind]. A store never
+     * waits for its locks: a transaction it wounded could not be told, since
+     * only workers check for wounds before committing.
+     */
+    StoreSB(SmartBuffer buffer, VersionTable lastversion, boolean WITH_BUFFER, ObjectLockTable.Kind lockKind){
         this.buffer = buffer;
-        this.lastversion = new HashMap<>();
         this.pending = new ConcurrentHashMap<>();
-        this.pendingread = new ConcurrentHashMap<>();
-        this.locktable = new ObjectLockTable();
-
-        this.numAbortLock = 0;
-        this.numAbortVc = 0;
+        this.prepared = ConcurrentHashMap.newKeySet();
+        this.locktable = new ObjectLockTable(lockKind, ObjectLockTable.WaitPolicy.NoWait, 0);
+
+        this.numAbortLock = new LongAdder();
+        this.numAbortVc = new LongAdder();
+        this.commitLatency = new Latency();
+        this.commitBatch = new Latency();
+        this.checkpointing = new StampedLock();
+        this.checkpointLatency = new Latency();
+        this.bufferLatency = new Latency();
+        this.prepareLatency = new Latency();
+        this.admission = AdmissionPolicy.unbounded();
 
         this.lastversion = lastversion;
 
         this.WITH_BUFFER = WITH_BUFFER;
     }
 
+    /**
+     * Set the policy that bounds the number of transactions and dependencies
+     * in the buffer. By default the buffer is unbounded.
+     *
+     * @param admission The admission policy.
+     */
+    public void setAdmissionPolicy(AdmissionPolicy admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * Write the transactions this store prepares, commits and aborts to a
+     * log. A prepare or commit returns once its record is as durable as the
+     * log's sync policy requires.
+     *
+     * @param log The log.
+     */
+    public void setLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    /*
+     * Record that [tid] grabbed its locks here, and log it.
+     */
+    private void markPrepared(long tid, LockRequest locks) {
+        if (log == null) {
+            prepared.add(tid);
+            return;
+        }
+        long lsn;
+        long stamp = checkpointing.readLock();
+        try {
+            prepared.add(tid);
+            lsn = log.appendPrepare(tid, locks);
+        } finally {
+            checkpointing.unlockRead(stamp);
+        }
+        log.syncIfRequired(lsn);
+    }
+
+    /*
+     * Take [tid] out of [prepared] because it aborted, and log it. Return
+     * true iff it was prepared, in which case the caller releases its locks.
+     */
+    private boolean unmarkPrepared(long tid) {
+        if (log == null) {
+            return prepared.remove(tid);
+        }
+        long stamp = checkpointing.readLock();
+        try {
+            if (!prepared.remove(tid)) {
+                return false;
+            }
+            log.appendAbort(tid);
+            return true;
+        } finally {
+            checkpointing.unlockRead(stamp);
+        }
+    }
+
+    /*
+     * Append the commit record of [tid] if it is pending here. Return the LSN
+     * past the record, or 0 if nothing was appended.
+     */
+    private long logCommit(long tid) {
+        LockRequest locks = pending.get(tid);
+        return locks == null ? 0 : log.appendCommit(tid, locks);
+    }
+
+    /**
+     * Checkpoint the versions and the prepared transactions of this store
+     * next to its log, and delete the log segments the checkpoint covers.
+     * Transactions keep preparing and committing while the versions are
+     * written out; the log holds their changes.
+     *
+     * @return The size of the checkpoint in bytes.
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    public long checkpoint() throws IOException {
+        if (log == null) {
+            throw new IllegalStateException("A checkpoint needs a log to replay from");
+        }
+        long start = System.nanoTime();
+        long lsn;
+        Map<Long, LockRequest> indoubt = new HashMap<>();
+        long stamp = checkpointing.writeLock();
+        try {
+            lsn = log.appended();
+            for (long tid : prepared) {
+                LockRequest locks = pending.get(tid);
+                if (locks != null) {
+                    indoubt.put(tid, locks);
+                }
+            }
+        } finally {
+            checkpointing.unlockWrite(stamp);
+        }
+        long bytes = Checkpoint.write(log.getDir(), log.getSegmentBytes(), lsn, lastversion, indoubt);
+        log.deleteSegmentsBefore(lsn);
+        checkpointLatency.record(System.nanoTime() - start);
+        checkpointBytes = bytes;
+        return bytes;
+    }
+
+    /**
+     * Checkpoint this store periodically on a background thread.
+     *
+     * @param intervalMillis The time between checkpoints.
+     */
+    public void setCheckpointInterval(long intervalMillis) {
+        Thread checkpointer = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(intervalMillis);
+                    checkpoint();
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "checkpoint");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    /**
+     * Recreate a store from the latest checkpoint in a log directory and the
+     * log after it. Transactions that prepared but neither committed nor
+     * aborted grab their locks again and wait for their outcome. The store
+     * appends to the log from where its records end.
+     *
+     * A transaction recovered from a prepare record only locks the objects
+     * it writes, since the log does not record reads.
+     *
+     * @param buffer A buffer to use for transactions with pending
+     *               dependencies. This should be an empty buffer.
+     * @param dir The directory of the log.
+     * @param segmentBytes The size of the log segments if there is no
+     *                     checkpoint to tell and no segment to measure.
+     * @param policy When new log records are forced to disk.
+     * @param syncIntervalMillis How often log records are forced with
+     *                           {@link WriteAheadLog.SyncPolicy#Interval}.
+     * @param WITH_BUFFER Whether to buffer transactions with pending
+     *                    dependencies.
+     * @return The recovered store.
+     * @throws IOException If the checkpoint or the log cannot be read.
+     */
+    public static StoreSB recover(SmartBuffer buffer, Path dir, int segmentBytes, WriteAheadLog.SyncPolicy policy,
+                                  long syncIntervalMillis, boolean WITH_BUFFER) throws IOException {
+        Checkpoint checkpoint = Checkpoint.loadLatest(dir);
+        VersionTable versions;
+        Map<Long, LockRequest> indoubt = new HashMap<>();
+        long lsn = 0;
+        if (checkpoint != null) {
+            versions = checkpoint.getVersions();
+            indoubt.putAll(checkpoint.getPrepared());
+            lsn = checkpoint.getLsn();
+            segmentBytes = checkpoint.getSegmentBytes();
+        } else {
+            versions = new VersionTable();
+            Path first = WriteAheadLog.segmentPath(dir, 0);
+            if (Files.exists(first)) {
+                segmentBytes = (int) Files.size(first);
+            }
+        }
+
+        long end = WriteAheadLog.replay(dir, segmentBytes, lsn, (type, tid, oids, vnums) -> {
+            switch (type) {
+                case WriteAheadLog.PREPARE:
+                    long[] bitmap = new long[(oids.length + 63) >>> 6];
+                    for (int i = 0; i < oids.length; i++) {
+                        bitmap[i >>> 6] |= 1L << i;
+                    }
+                    indoubt.put(tid, new LockRequest(oids, bitmap, vnums));
+                    break;
+                case WriteAheadLog.COMMIT:
+                    for (int i = 0; i < oids.length; i++) {
+                        versions.advance(oids[i], vnums[i]);
+                    }
+                    indoubt.remove(tid);
+                    break;
+                default:
+                    indoubt.remove(tid);
+            }
+        });
+
+        StoreSB store = new StoreSB(buffer, versions, WITH_BUFFER);
+        store.setLog(new WriteAheadLog(dir, segmentBytes, policy, syncIntervalMillis, end));
+        for (Map.Entry<Long, LockRequest> entry : indoubt.entrySet()) {
+            store.pending.put(entry.getKey(), entry.getValue());
+            store.locktable.grabLock(entry.getValue(), entry.getKey());
+            store.prepared.add(entry.getKey());
+        }
+        return store;
+    }
+
     @Override
     public void setWorkers(Collection<Worker> workers) {
         this.workers = workers;
     }
 
     @Override
-    public Future<Boolean> prepare(Worker worker, long tid, Set<ObjectVN> reads, Set<ObjectVN> writes) {
+    public void prepare(Worker worker, long tid, Set<ObjectVN> reads, Set<ObjectVN> writes, ResolutionListener resolution) {
+        long start = System.nanoTime();
+        ResolutionListener listener = (t, outcome, reason) -> {
+            prepareLatency.record(System.nanoTime() - start);
+            resolution.onResolve(t, outcome, reason);
+        };
+
         // Check version conflict
         Set<ObjectVN> actualdeps = new HashSet<>();
         Set<ObjectVN> versionconflict = new HashSet<>();
 
         for (ObjectVN object : reads) {
+            long version = lastversion.get(object.oid);
             // if there is a older version, there is a version conflict and prepare fails.
-            if (object.vnum < lastversion.getOrDefault(object.oid, 0L)) {
-                versionconflict.add(new ObjectVN(object.oid, lastversion.get(object.oid)));
+            if (object.vnum < version) {
+                versionconflict.add(new ObjectVN(object.oid, version));
                 // if there is a version that's never seen, add that to the dependency of this transaction
-            } else if (object.vnum > lastversion.get(object.oid)) {
+            } else if (object.vnum > version) {
                 actualdeps.add(object);
             }
         }
 
         if (!versionconflict.isEmpty()) {
             worker.update(versionconflict);
-            numAbortVc++;
-            return futureWith(false);
+            numAbortVc.increment();
+            listener.onResolve(tid, false, Reason.VersionConflict);
+            return;
         }
 
-        pending.put(tid, new HashSet<>(writes));
-        pendingread.put(tid, new HashSet<>(reads));
+        // Make room in the buffer before the transaction is recorded as pending
+        int numdeps = reads.size();
+        if (!actualdeps.isEmpty() && WITH_BUFFER && !admission.admit(numdeps)) {
+            listener.onResolve(tid, false, Reason.Rejected);
+            return;
+        }
+
+        LockRequest locks = LockRequest.of(reads, writes);
+        pending.put(tid, locks);
 
         if (actualdeps.isEmpty()) {
             // Grab the lock on the store's side
-            boolean res = locktable.grabLock(reads, writes, tid);
+            boolean res = locktable.grabLock(locks, tid);
             if (!res) {
-                numAbortLock++;
+                numAbortLock.increment();
+            } else {
+                markPrepared(tid, locks);
             }
-            return futureWith(res);
+            listener.onResolve(tid, res, res ? Reason.Prepared : Reason.LockConflict);
         } else {
             if (WITH_BUFFER){
                 // Result resolved to true if the dependencies of [tid] are resolved. resolved to false only when there is version conflict
-                return buffer.add(tid, reads);
+                long added = System.nanoTime();
+                buffer.add(tid, reads, (t, outcome, reason) -> {
+                    bufferLatency.record(System.nanoTime() - added);
+                    admission.release(numdeps);
+                    listener.onResolve(t, outcome, reason);
+                });
             } else {
-                return futureWith(false);
+                listener.onResolve(tid, false, Reason.Unresolved);
             }
         }
     }
 
+    /*
+     * A commit waiting for the group commit thread.
+     */
+    private static class PendingCommit {
+        final Worker worker;
+        final long tid;
+        final CountDownLatch applied;
+
+        PendingCommit(Worker worker, long tid) {
+            this.worker = worker;
+            this.tid = tid;
+            this.applied = new CountDownLatch(1);
+        }
+    }
+
+    /**
+     * Apply commits in batches on a dedicated thread: a batch collects the
+     * commits that arrive within a window of the first one, up to a maximum
+     * size, then updates their versions, releases their locks and resolves
+     * the buffered transactions waiting for them in one pass. A commit
+     * returns once its batch is applied.
+     *
+     * @param maxBatch The most commits in a batch. With 1 or less, commits
+     *                 are applied one at a time on the committing thread.
+     * @param windowMicros How long a batch waits for more commits after its
+     *                     first one.
+     */
+    public void setGroupCommit(int maxBatch, long windowMicros) {
+        if (maxBatch <= 1 || commitqueue != null) {
+            return;
+        }
+        this.maxCommitBatch = maxBatch;
+        this.commitWindowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.commitqueue = new LinkedBlockingQueue<>();
+        Thread committer = new Thread(this::groupCommit, "group-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /*
+     * Return true iff commits are applied on a group commit thread.
+     */
+    boolean hasGroupCommit() {
+        return commitqueue != null;
+    }
+
     @Override
     public void commit(Worker worker, long tid) {
-        if (!pending.containsKey(tid)){
+        long start = System.nanoTime();
+        if (commitqueue != null) {
+            PendingCommit commit = new PendingCommit(worker, tid);
+            commitqueue.add(commit);
+            try {
+                commit.applied.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            commitLatency.record(System.nanoTime() - start);
             return;
         }
-        for (ObjectVN write : pending.get(tid)) {
-            lastversion.put(write.oid, write.vnum);
+        List<ObjectVN> writes = new ArrayList<>();
+        boolean applied;
+        if (log == null) {
+            applied = apply(worker, tid, writes);
+        } else {
+            long stamp = checkpointing.readLock();
+            try {
+                log.syncIfRequired(logCommit(tid));
+                applied = apply(worker, tid, writes);
+            } finally {
+                checkpointing.unlockRead(stamp);
+            }
+        }
+        if (!applied) {
+            return;
+        }
+        // Remove objects from the buffer
+        if (WITH_BUFFER && !writes.isEmpty()){
+            buffer.removeAll(writes);
+        }
+        commitLatency.record(System.nanoTime() - start);
+    }
+
+    /*
+     * Apply the commit of [tid]: update the versions it writes and release
+     * its locks, before resolving the transactions waiting for these
+     * versions, which may need the same locks. Add the versions written to
+     * [writes] for the caller to remove from the buffer. Return false if
+     * the transaction is not pending here.
+     */
+    private boolean apply(Worker worker, long tid, List<ObjectVN> writes) {
+        LockRequest locks = pending.remove(tid);
+        if (locks == null){
+            return false;
+        }
+        for (int i = 0; i < locks.size(); i++) {
+            if (!locks.isWrite(i)) {
+                continue;
+            }
+            ObjectVN write = new ObjectVN(locks.oid(i), locks.vnum(i));
+            lastversion.advance(write.oid, write.vnum);
+            writes.add(write);
 
             // notify all other workers if this is a create
             if (write.vnum == 0) {
@@ -137,57 +543,139 @@ public class StoreSB extends Store {
                     }
                 }
             }
+        }
+        install(tid, locks);
+        // Release Lock
+        if (prepared.remove(tid)) {
+            locktable.releaseLock(locks, tid);
+        }
+        return true;
+    }
 
-            // Remove object from the buffer
-            if (WITH_BUFFER){
-                buffer.remove(write);
+    /**
+     * Called when the commit of a transaction is applied, after its versions
+     * are updated and before its locks are released, so the writers of an
+     * object are called in commit order.
+     *
+     * @param tid The ID of the transaction.
+     * @param locks The objects the transaction accesses at this store.
+     */
+    protected void install(long tid, LockRequest locks) {
+    }
+
+    /*
+     * The group commit thread: collect a batch of commits, apply them, then
+     * resolve the buffered transactions waiting for any of their versions
+     * with a single removeAll.
+     */
+    private void groupCommit() {
+        List<PendingCommit> batch = new ArrayList<>(maxCommitBatch);
+        List<ObjectVN> writes = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(commitqueue.take());
+                long deadline = System.nanoTime() + commitWindowNanos;
+                while (batch.size() < maxCommitBatch) {
+                    if (commitqueue.drainTo(batch, maxCommitBatch - batch.size()) > 0) {
+                        continue;
+                    }
+                    long left = deadline - System.nanoTime();
+                    PendingCommit next = left > 0 ? commitqueue.poll(left, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (log == null) {
+                    for (PendingCommit commit : batch) {
+                        apply(commit.worker, commit.tid, writes);
+                    }
+                } else {
+                    long stamp = checkpointing.readLock();
+                    try {
+                        // one force for the whole batch
+                        long lsn = 0;
+                        for (PendingCommit commit : batch) {
+                            lsn = Math.max(lsn, logCommit(commit.tid));
+                        }
+                        log.syncIfRequired(lsn);
+                        for (PendingCommit commit : batch) {
+                            apply(commit.worker, commit.tid, writes);
+                        }
+                    } finally {
+                        checkpointing.unlockRead(stamp);
+                    }
+                }
+                if (WITH_BUFFER && !writes.isEmpty()) {
+                    buffer.removeAll(writes);
+                }
+                commitBatch.record(batch.size());
+            } finally {
+                for (PendingCommit commit : batch) {
+                    commit.applied.countDown();
+                }
+                batch.clear();
+                writes.clear();
             }
         }
-        // Release Lock
-        locktable.releaseLock(pendingread.getOrDefault(tid, new HashSet<>()), pending.getOrDefault(tid, new HashSet<>()), tid);
-        pending.remove(tid);
-        pendingread.remove(tid);
     }
 
     @Override
     public void abort(long tid) {
-        pending.remove(tid);
-        pendingread.remove(tid);
         if (WITH_BUFFER){
             buffer.delete(tid);
         }
-    }
-
-    /**
-     * Create an already completed future with a given value.
-     *
-     * @param value The value.
-     * @param <T> The type of the value (and the future).
-     * @return An already completed future with the value {@code value}.
-     */
-    private <T> Future<T> futureWith(T value) {
-        return CompletableFuture.completedFuture(value);
+        // Release the locks the transaction grabbed if it prepared here.
+        // Whoever takes it out of [prepared] releases them, exactly once.
+        LockRequest locks = pending.remove(tid);
+        if (!unmarkPrepared(tid) || locks == null) {
+            return;
+        }
+        locktable.releaseLock(locks, tid);
+        // Only a transaction that holds its write locks here was going to
+        // create the versions it writes; anyone waiting on them now waits
+        // forever, so eject them right away.
+        if (WITH_BUFFER && locks.numWrites() > 0) {
+            buffer.cancelAll(locks.getWrites());
+        }
     }
 
     @Override
-    public Long getVersion(long oid) {
+    public long getVersion(long oid) {
         return lastversion.get(oid);
     }
 
     @Override
     public boolean grabLock(long tid) {
-        return locktable.grabLock(pendingread.get(tid), pending.get(tid), tid);
+        LockRequest locks = pending.get(tid);
+        if (locks == null) {
+            // the transaction aborted before the buffer got to resolve it
+            return false;
+        }
+        if (!locktable.grabLock(locks, tid)) {
+            return false;
+        }
+        markPrepared(tid, locks);
+        if (!pending.containsKey(tid) && unmarkPrepared(tid)) {
+            // aborted while the locks were being grabbed
+            locktable.releaseLock(locks, tid);
+            return false;
+        }
+        return true;
     }
     
     @Override
     public void setversion(ObjectVN object) {
-        this.lastversion.put(object.oid, object.vnum);
+        this.lastversion.set(object.oid, object.vnum);
     }
     
     @Override
     public void addpending(long tid) {
-        pendingread.put(tid, new HashSet<>());
-        pending.put(tid, new HashSet<>());
+        pending.put(tid, LockRequest.of(Collections.emptySet(), Collections.emptySet()));
     }
 
     @Override
@@ -209,29 +697,62 @@ public class StoreSB extends Store {
     public StoreBenchmark getCSVData() {
         return new StoreBenchmark(pending(),
                 getNumLink(),
-                numAbortLock,
-                numAbortVc,
+                getNumAbortLock(),
+                getNumAbortVc(),
                 buffer.getNumResolve(),
                 buffer.getNumAbortLock(),
-                buffer.getNumAbortVC());
+                buffer.getNumAbortVC(),
+                buffer.getNumTimeout(),
+                buffer.getNumCascade(),
+                admission.getNumDeps(),
+                admission.getPeakTxns(),
+                admission.getNumRejected(),
+                locktable.size(),
+                locktable.getWaitLatency(),
+                locktable.getNumDied(),
+                locktable.getNumWounded(),
+                locktable.getNumWaitTimeout(),
+                commitLatency.getMeanMicros(),
+                commitBatch,
+                log == null ? 0 : log.getNumRecords(),
+                log == null ? 0 : log.getNumBytes(),
+                log == null ? 0 : log.getRecordsPerSecond(),
+                log == null ? new Latency() : log.getSyncLatency(),
+                checkpointLatency,
+                checkpointBytes,
+                buffer.getResolveLatency().getMeanMicros(),
+                bufferLatency,
+                buffer.getResolveLatency(),
+                prepareLatency);
     }
 
     @Override
     public String toString() {
         return String.format("Store has %d pending transactions %s and %d transactions in buffer. Store aborted " +
                 "%d txns because of a lock conflict and %d txns because of a version conflict. "
-                + buffer.toString(), pending(), pendingkey(), getNumLink(), numAbortLock, numAbortVc);
+                + buffer.toString(), pending(), pendingkey(), getNumLink(), getNumAbortLock(), getNumAbortVc());
     }
 
     public int getNumAborts() {
-        return numAbortLock + numAbortVc;
+        return getNumAbortLock() + getNumAbortVc();
     }
 
     public int getNumAbortLock() {
-        return numAbortLock;
+        return (int) numAbortLock.sum();
     }
 
     public int getNumAbortVc() {
-        return numAbortVc;
+        return (int) numAbortVc.sum();
+    }
+
+    /**
+     * @return The sizes of the group commit batches applied so far.
+     */
+    public Latency getCommitBatch() {
+        return commitBatch;
+    }
+
+    public int getNumRejected() {
+        return admission.getNumRejected();
     }
 }
@@ -0,0 +1,26 @@
+package util;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Delivers each message on a new thread that sleeps out its delay first.
+ * Simple, but every message in flight holds a thread.
+ */
+public class ThreadDispatcher implements MessageDispatcher {
+    @Override
+    public CompletableFuture<Void> send(long delayNanos, Runnable message) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        new Thread(() -> {
+            try {
+                if (delayNanos > 0) {
+                    Thread.sleep(delayNanos / 1_000_000, (int) (delayNanos % 1_000_000));
+                }
+                message.run();
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            }
+        }).start();
+        return done;
+    }
+}
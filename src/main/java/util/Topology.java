@@ -0,0 +1,140 @@
+package util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The model of every link from a worker to a store. A topology file holds
+ * one rule per line,
+ * <pre>
+ *   worker,store,delay,mean_us,spread_us,bandwidth_mbps,object_us
+ * </pre>
+ * where worker is a worker ID or {@code *}, store is a store index,
+ * {@code home}, {@code remote} or {@code *}, delay is a
+ * {@link LatencyDistribution.Kind} in lower case, and the rest are the
+ * parameters of a {@link LinkModel}. A link follows the last rule that
+ * matches it, and has no cost if none does. Blank lines and lines starting
+ * with {@code #} are ignored.
+ */
+public class Topology {
+    private static final String ANY = "*";
+    private static final String HOME = "home";
+    private static final String REMOTE = "remote";
+
+    /*
+     * A line of the file: the links it matches and their model.
+     */
+    private static class Rule {
+        final String worker;
+        final String store;
+        final LinkModel model;
+
+        Rule(String worker, String store, LinkModel model) {
+            this.worker = worker;
+            this.store = store;
+            this.model = model;
+        }
+
+        boolean matches(int wid, int storeIndex, boolean home) {
+            if (!worker.equals(ANY) && Integer.parseInt(worker) != wid) {
+                return false;
+            }
+            switch (store) {
+                case ANY:
+                    return true;
+                case HOME:
+                    return home;
+                case REMOTE:
+                    return !home;
+                default:
+                    return Integer.parseInt(store) == storeIndex;
+            }
+        }
+    }
+
+    private final List<Rule> rules;
+
+    private Topology(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Create a topology where links to a worker's home store and to other
+     * stores each follow one model.
+     *
+     * @param home The model of the links to home stores.
+     * @param remote The model of the other links.
+     * @return The topology.
+     */
+    public static Topology of(LinkModel home, LinkModel remote) {
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new Rule(ANY, HOME, home));
+        rules.add(new Rule(ANY, REMOTE, remote));
+        return new Topology(rules);
+    }
+
+    /**
+     * Load a topology file.
+     *
+     * @param file The file.
+     * @return The topology.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If a line is malformed.
+     */
+    public static Topology load(Path file) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        int number = 0;
+        for (String line : Files.readAllLines(file)) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s*,\\s*");
+            if (fields.length != 7) {
+                throw new IllegalArgumentException(file + ":" + number + ": expected 7 fields");
+            }
+            try {
+                LatencyDistribution delay = new LatencyDistribution(parseKind(fields[2]),
+                        Double.parseDouble(fields[3]), Double.parseDouble(fields[4]));
+                LinkModel model = new LinkModel(delay, Double.parseDouble(fields[5]), Double.parseDouble(fields[6]));
+                Rule rule = new Rule(fields[0], fields[1], model);
+                // reject unknown workers and stores now, not on the first message
+                rule.matches(0, 0, false);
+                rules.add(rule);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(file + ":" + number + ": " + e.getMessage(), e);
+            }
+        }
+        return new Topology(rules);
+    }
+
+    private static LatencyDistribution.Kind parseKind(String name) {
+        for (LatencyDistribution.Kind kind : LatencyDistribution.Kind.values()) {
+            if (kind.name().equalsIgnoreCase(name)) {
+                return kind;
+            }
+        }
+        throw new IllegalArgumentException("Unknown delay distribution: " + name);
+    }
+
+    /**
+     * Return the model of a link.
+     *
+     * @param wid The ID of the worker.
+     * @param storeIndex The index of the store.
+     * @param home Whether the store is the worker's home store.
+     * @return The model of the link.
+     */
+    public LinkModel link(int wid, int storeIndex, boolean home) {
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            if (rules.get(i).matches(wid, storeIndex, home)) {
+                return rules.get(i).model;
+            }
+        }
+        return LinkModel.none();
+    }
+}
@@ -1,9 +1,11 @@
 package util;
 
 import com.google.common.collect.Sets;
+import smartbuffer.ResolutionListener;
 
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Txn {
     /*
@@ -30,238 +32,285 @@ public class Txn {
      * A pointer to the worker that owns this transaction.
      */
     private Worker worker;
-    
-    private ExecutorService pool;
+
+    /*
+     * The stores this transaction reads or writes at.
+     */
+    private Set<Store> stores;
+
+    /*
+     * The objects this transaction locks on the worker's side, built once
+     * when it prepares.
+     */
+    private LockRequest locks;
+
+    /*
+     * True if this transaction only read a snapshot, so there is nothing to
+     * commit or abort.
+     */
+    private boolean snapshot;
     
     public Txn(Worker worker, long tid, HashMap<Store, HashSet<ObjectVN>> reads, HashMap<Store, HashSet<ObjectVN>> writes) {
         this.worker = worker;
         this.tid = tid;
         this.reads = reads;
         this.writes = writes;
-        this.pool = Executors.newCachedThreadPool();
+        this.stores = Sets.union(reads.keySet(), writes.keySet()).immutableCopy();
     }
     
     public boolean prepare() {
-        // Acquire lock on the worker's side
-        Set<ObjectVN> readso = new HashSet<>(Util.getSetMapValues(reads));
-        Set<ObjectVN> writeso = new HashSet<>(Util.getSetMapValues(writes));
-
+        return prepareAsync().join();
+    }
 
-        if (!worker.grablock(readso, writeso, tid)) {
-            worker.numAbortLock++;
-            return false;
-        }
-        // Submit transaction to each store
-        if (TxnConcurrent) {
-            List<Future<Future<Boolean>>> futures = new LinkedList<>();
-            for (Store s :  Sets.union(reads.keySet(), writes.keySet())){
-                Callable<Future<Boolean>> c = () -> {return s.prepare(worker, tid, reads.getOrDefault(s, new HashSet<>()), writes.getOrDefault(s, new HashSet<>()));};
-                final Future<Future<Boolean>> future = pool.submit(c);
-                futures.add(future);
-            }
-            List<Future<Boolean>> results = new LinkedList<>();
-            for (Future<Future<Boolean>> future : futures) {
-                Future<Boolean> result;
-                try {
-                    result = future.get();
-                    results.add(result);
-                } catch (InterruptedException | ExecutionException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-            }
-            for (Future<Boolean> result : results) {
-                try {
-                    // if the prepare failed, abort this transaction
-                    if (!result.get()) {
-                        abort();
-                        return false;
-                    }
-                } catch (InterruptedException | ExecutionException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-            }
-        } else {
-            for (Store s : Sets.union(reads.keySet(), writes.keySet())) {
-                Future<Boolean> result = s.prepare(worker, tid, reads.getOrDefault(s, new HashSet<>()), writes.getOrDefault(s, new HashSet<>()));
-                // if the prepare failed, abort this transaction
-                try {
-                    if (!result.get()) {
-                        abort();
-                        return false;
-                    }
-                } catch (InterruptedException | ExecutionException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
+    /**
+     * Prepare this transaction without blocking: grab its locks on the
+     * worker's side, prepare it at each of its stores, and abort it if any of
+     * them fails. Once it has prepared, its writes are applied on the
+     * worker's side and its locks are released.
+     *
+     * @return A future that completes with whether the transaction prepared,
+     *         on the thread that delivers or resolves its last prepare.
+     */
+    public CompletableFuture<Boolean> prepareAsync() {
+        return prepareAtStores(false).thenApply(prepared -> {
+            if (prepared && !snapshot) {
+                worker.update(Util.getSetMapValues(writes));
+                //Release lock on the worker's side
+                worker.releaselock(locks, tid);
             }
-        }
-
-        worker.update(Util.getSetMapValues(writes));
-        //Release lock on the worker's side
-        worker.releaselock(
-                new HashSet<>(Util.getSetMapValues(reads)),
-                new HashSet<>(Util.getSetMapValues(writes)),
-                tid
-        );
-        return true;
+            return prepared;
+        });
     }
     
     public void abort() {
         //Release lock on the worker's side
-        worker.releaselock(
-                new HashSet<>(Util.getSetMapValues(reads)),
-                new HashSet<>(Util.getSetMapValues(writes)),
-                tid
-        );
+        worker.releaselock(locks, tid);
 
         //abort the transaction in every store
-        for (Store s : Sets.union(reads.keySet(), writes.keySet())){
-            new Thread(() -> {
-                inv_sleep(s);
-                s.abort(this.tid);
-            }).start();
+        for (Store s : stores){
+            send(s, () -> s.abort(tid));
         }
     }
     
     public void commit() {
-        for (Store s : Sets.union(reads.keySet(), writes.keySet())){
-           new Thread(() -> {
-               inv_sleep(s);
-               s.commit(worker,tid);
-           }).start();
+        if (snapshot) {
+            return;
+        }
+        if (worker.clock != null) {
+            worker.clock.startCommit(tid, stores.size());
+        }
+        for (Store s : stores){
+            send(s, () -> s.commit(worker, tid));
         }
     }
 
 
     public boolean original_prepare() {
-        // Acquire lock on the worker's side
-        Set<ObjectVN> readso = new HashSet<>(Util.getSetMapValues(reads));
-        Set<ObjectVN> writeso = new HashSet<>(Util.getSetMapValues(writes));
+        return original_prepareAsync().join();
+    }
+
+    /**
+     * Prepare this transaction as in {@link #prepareAsync()}, but keep its
+     * locks on the worker's side until it commits or aborts.
+     *
+     * @return A future that completes with whether the transaction prepared.
+     */
+    public CompletableFuture<Boolean> original_prepareAsync() {
+        return prepareAtStores(true);
+    }
+
+    public void original_abort() {
+        original_abortAsync().join();
+    }
+
+    /**
+     * Abort this transaction at every store, then release its locks on the
+     * worker's side.
+     *
+     * @return A future that completes once every store has aborted.
+     */
+    public CompletableFuture<Void> original_abortAsync() {
+        //abort the transaction in every store, and wait for all of them
+        CompletableFuture<?>[] sent = new CompletableFuture<?>[stores.size()];
+        int i = 0;
+        for (Store s : stores){
+            sent[i++] = send(s, () -> s.abort(tid));
+        }
+        return CompletableFuture.allOf(sent).thenRun(() -> {
+            //Release lock on the worker's side
+            worker.releaselock(locks, tid);
+        });
+    }
+
+    public void original_commit() {
+        original_commitAsync().join();
+    }
 
+    /**
+     * Commit this transaction at every store, then apply its writes and
+     * release its locks on the worker's side.
+     *
+     * @return A future that completes once every store has committed.
+     */
+    public CompletableFuture<Void> original_commitAsync() {
+        if (snapshot) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (worker.clock != null) {
+            worker.clock.startCommit(tid, stores.size());
+        }
+        CompletableFuture<?>[] sent = new CompletableFuture<?>[stores.size()];
+        int i = 0;
+        for (Store s : stores){
+            sent[i++] = send(s, () -> s.commit(worker, tid));
+        }
+        return CompletableFuture.allOf(sent).thenRun(() -> {
+            worker.update(Util.getSetMapValues(writes));
+            //Release lock on the worker's side
+            worker.releaselock(locks, tid);
+        });
+    }
+
+    /*
+     * Grab the locks of this transaction on the worker's side and prepare it
+     * at its stores, or read its snapshot if it is read-only. If it fails to
+     * prepare, it is aborted with original_abort() if [original] is true, and
+     * with abort() otherwise.
+     */
+    private CompletableFuture<Boolean> prepareAtStores(boolean original) {
+        if (writes.isEmpty() && worker.clock != null) {
+            return CompletableFuture.completedFuture(readSnapshot());
+        }
+        // Acquire lock on the worker's side
+        locks = LockRequest.of(new HashSet<>(Util.getSetMapValues(reads)), new HashSet<>(Util.getSetMapValues(writes)));
 
-        if (!worker.grablock(readso, writeso, tid)) {
-            worker.numAbortLock++;
-            return false;
+        if (!worker.grablock(locks, tid)) {
+            worker.numAbortLock.increment();
+            return CompletableFuture.completedFuture(false);
         }
         // Submit transaction to each store
-        if (TxnConcurrent) {
-            List<Future<Future<Boolean>>> futures = new LinkedList<>();
-            for (Store s :  Sets.union(reads.keySet(), writes.keySet())){
-                Callable<Future<Boolean>> c = () -> {return s.prepare(worker, tid, reads.getOrDefault(s, new HashSet<>()), writes.getOrDefault(s, new HashSet<>()));};
-                final Future<Future<Boolean>> future = pool.submit(c);
-                futures.add(future);
+        CompletableFuture<Boolean> prepared = TxnConcurrent ? prepareConcurrently() : prepareInOrder(stores.iterator());
+        return prepared.thenCompose(outcome -> {
+            // An older transaction waiting for our locks wounded us
+            if (outcome && worker.isWounded(tid)) {
+                worker.numAbortLock.increment();
+                outcome = false;
             }
-            List<Future<Boolean>> results = new LinkedList<>();
-            for (Future<Future<Boolean>> future : futures) {
-                Future<Boolean> result;
-                try {
-                    result = future.get();
-                    results.add(result);
-                } catch (InterruptedException | ExecutionException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
+            if (outcome) {
+                return CompletableFuture.completedFuture(true);
             }
-            for (Future<Boolean> result : results) {
-                try {
-                    // if the prepare failed, abort this transaction
-                    if (!result.get()) {
-                        original_abort();
-                        return false;
-                    }
-                } catch (InterruptedException | ExecutionException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
+            // if the prepare failed, abort this transaction
+            if (original) {
+                return original_abortAsync().thenApply(v -> false);
             }
-        } else {
-            for (Store s : Sets.union(reads.keySet(), writes.keySet())) {
-                Future<Boolean> result = s.prepare(worker, tid, reads.getOrDefault(s, new HashSet<>()), writes.getOrDefault(s, new HashSet<>()));
-                // if the prepare failed, abort this transaction
-                try {
-                    if (!result.get()) {
-                        original_abort();
+            abort();
+            return CompletableFuture.completedFuture(false);
+        });
+    }
+
+    /*
+     * Read every object of a read-only transaction from a snapshot of its
+     * stores, without locks or validation. Return false iff a version the
+     * snapshot needs was already collected.
+     */
+    private boolean readSnapshot() {
+        snapshot = true;
+        long timestamp = worker.clock.beginSnapshot();
+        try {
+            for (Map.Entry<Store, HashSet<ObjectVN>> entry : reads.entrySet()) {
+                StoreMV s = (StoreMV) entry.getKey();
+                for (ObjectVN object : entry.getValue()) {
+                    if (s.read(object.oid, timestamp) == null) {
                         return false;
                     }
-                } catch (InterruptedException | ExecutionException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
                 }
             }
+            return true;
+        } finally {
+            worker.clock.endSnapshot(timestamp);
         }
-
-        return true;
     }
 
-    public void original_abort() {
-        ArrayList<Thread> thread_list = new ArrayList<>();
-
-        //abort the transaction in every store
-        for (Store s : Sets.union(reads.keySet(), writes.keySet())){
-            Thread t = new Thread(() -> {
-                inv_sleep(s);
-                s.abort(this.tid);
-            });
-            thread_list.add(t);
-            t.start();
+    /*
+     * Submit the transaction to all stores at once. The result is true iff
+     * every store prepared the transaction successfully. Once one of them has
+     * failed, it is known without waiting for the others to decide, but only
+     * after all of them received the prepare, so an abort sent next cannot
+     * reach a store before its prepare and leave it holding locks.
+     */
+    private CompletableFuture<Boolean> prepareConcurrently() {
+        if (stores.isEmpty()) {
+            return CompletableFuture.completedFuture(true);
         }
-
-        for (Thread t : thread_list) {
-            try {
-                t.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(stores.size());
+        ResolutionListener listener = (t, outcome, reason) -> {
+            if (!outcome) {
+                result.complete(false);
+            } else if (remaining.decrementAndGet() == 0) {
+                result.complete(true);
             }
+        };
+        CompletableFuture<?>[] delivered = new CompletableFuture<?>[stores.size()];
+        int i = 0;
+        for (Store s : stores) {
+            delivered[i++] = sendPrepare(s, listener);
         }
-
-        //Release lock on the worker's side
-        worker.releaselock(
-                new HashSet<>(Util.getSetMapValues(reads)),
-                new HashSet<>(Util.getSetMapValues(writes)),
-                tid
-        );
+        return CompletableFuture.allOf(delivered).thenCompose(v -> result);
     }
 
-    public void original_commit() {
-        ArrayList<Thread> thread_list = new ArrayList<>();
-
-        for (Store s : Sets.union(reads.keySet(), writes.keySet())){
-            Thread t = new Thread(() -> {
-                inv_sleep(s);
-                s.commit(worker,tid);
-            });
-            thread_list.add(t);
-            t.start();
+    /*
+     * Submit the transaction to the stores of [remaining] one at a time, each
+     * once the one before has prepared it. The result is true iff every store
+     * prepared the transaction successfully.
+     */
+    private CompletableFuture<Boolean> prepareInOrder(Iterator<Store> remaining) {
+        if (!remaining.hasNext()) {
+            return CompletableFuture.completedFuture(true);
         }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        sendPrepare(remaining.next(), (t, outcome, reason) -> result.complete(outcome));
+        return result.thenCompose(outcome -> outcome ? prepareInOrder(remaining) : result);
+    }
 
-        for (Thread t: thread_list) {
-            try {
-                t.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    /*
+     * Deliver [message], which carries [objects] objects, to [s] over the
+     * simulated network if there is one.
+     */
+    private CompletableFuture<Void> deliver(Store s, int objects, Runnable message) {
+        if (worker.network == null) {
+            return worker.dispatcher.send(0, message);
         }
+        return worker.network.send(worker.dispatcher, worker, s, objects, message);
+    }
 
-        worker.update(Util.getSetMapValues(writes));
-        //Release lock on the worker's side
-        worker.releaselock(
-                new HashSet<>(Util.getSetMapValues(reads)),
-                new HashSet<>(Util.getSetMapValues(writes)),
-                tid
-        );
+    /*
+     * Send [message] to [s] after the simulated delay. Commits and aborts
+     * are only sent once the prepare at [s] was delivered, so however the
+     * delays fall they never reach a store before the prepare.
+     */
+    private CompletableFuture<Void> send(Store s, Runnable message) {
+        return deliver(s, 0, message).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
     }
 
-    private void inv_sleep(Store s){
-        try {
-            if (!s.equals(worker.homestore)) {
-                Thread.sleep((int)(Math.random()*worker.non_home_inv));
-            } else {
-                Thread.sleep((int)(Math.random()*worker.home_inv));
-            }
-        } catch (InterruptedException e) {
+    /*
+     * Send the prepare of this transaction to [s], which resolves [listener].
+     * The future completes once the prepare has been delivered.
+     */
+    private CompletableFuture<Void> sendPrepare(Store s, ResolutionListener listener) {
+        Set<ObjectVN> r = reads.getOrDefault(s, new HashSet<>());
+        Set<ObjectVN> w = writes.getOrDefault(s, new HashSet<>());
+        Runnable prepare = () -> s.prepare(worker, tid, r, w, listener);
+        CompletableFuture<Void> sent = worker.network != null && worker.network.delaysPrepares()
+                ? deliver(s, r.size() + w.size(), prepare)
+                : worker.dispatcher.send(0, prepare);
+        return sent.exceptionally(e -> {
             e.printStackTrace();
-        }
+            listener.onResolve(tid, false, ResolutionListener.Reason.Deleted);
+            return null;
+        });
     }
 }
@@ -16,8 +16,11 @@ public class TxnGenerator {
     /*queue to communicate with worker */
     private BlockingQueue<Txn> queue;
     
-    /*The biggest unused tid */
-    private long tid;
+    /*
+     * The number of transactions started by all generators, shared so tids
+     * order transactions by when they started, whichever worker runs them.
+     */
+    private AtomicLong started;
     
     /*The biggest unused oid*/
     private AtomicLong last_unused_oid;
@@ -30,10 +33,9 @@ public class TxnGenerator {
     /* Ratio of reads to writes */
     private float writeRatio;
 
-    /* Generate a new unique tid */
+    /* Generate a new unique tid, larger than the tid of every transaction started before */
     private long generateTid() {
-        tid++;
-        return (tid - 1)*32 + wid;
+        return (started.incrementAndGet() - 1)*32 + wid;
     }
     
     /* Generate a new unique oid */
@@ -61,15 +63,16 @@ public class TxnGenerator {
     }
 
     public TxnGenerator(Worker worker) {
-        this(worker, RandomGenerator.constant(0.001f), 0.001f, 10, new AtomicLong());
+        this(worker, RandomGenerator.constant(0.001f), 0.001f, 10, new AtomicLong(), new AtomicLong());
     }
 
-    TxnGenerator(Worker worker, RandomGenerator gen, float writeRatio, int txn_queue_capacity, AtomicLong last_unused_oid) {
+    TxnGenerator(Worker worker, RandomGenerator gen, float writeRatio, int txn_queue_capacity, AtomicLong last_unused_oid,
+                 AtomicLong started) {
         this.worker = worker;
         this.wid = worker.wid;
         this.queue = new ArrayBlockingQueue<>(txn_queue_capacity);
         this.gen = gen;
-        this.tid = 0;
+        this.started = started;
         this.last_unused_oid = last_unused_oid;
         this.writeRatio = writeRatio;
         worker.setqueue(queue);
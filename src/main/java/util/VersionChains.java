@@ -0,0 +1,157 @@
+package util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The committed values of each object, as a chain from the newest version to
+ * the oldest one still readable. Readers walk a chain without locking; the
+ * writers of an object are serialized by its write lock.
+ *
+ * An object without a chain still has its initial value. Installing a
+ * version trims the chain behind the newest version at or before the
+ * horizon, which no snapshot reads past, and to a bounded length, which can
+ * leave an old snapshot without a version to read.
+ */
+public class VersionChains {
+    /**
+     * A committed version of an object.
+     */
+    public static final class Version {
+        public final long vnum;
+        public final long timestamp;
+        public final byte[] value;
+
+        /*
+         * The next older version, or null if the chain ends here.
+         */
+        volatile Version older;
+
+        Version(long vnum, long timestamp, byte[] value, Version older) {
+            this.vnum = vnum;
+            this.timestamp = timestamp;
+            this.value = value;
+            this.older = older;
+        }
+    }
+
+    /*
+     * The newest version of each object written since the table was created.
+     */
+    private final ConcurrentHashMap<Long, Version> heads;
+
+    /*
+     * The version every object starts at, shared by all of them.
+     */
+    private final Version initial;
+
+    private final int maxVersions;
+
+    /*
+     * The versions held, not counting [initial], their value bytes, and the
+     * versions trimmed so far.
+     */
+    private final LongAdder numVersions;
+    private final LongAdder numBytes;
+    private final LongAdder numCollected;
+
+    /**
+     * Create chains where every object starts at version 0 with a given
+     * value.
+     *
+     * @param initial The value of version 0.
+     * @param maxVersions The most versions kept of an object.
+     */
+    public VersionChains(byte[] initial, int maxVersions) {
+        this.heads = new ConcurrentHashMap<>();
+        this.initial = new Version(0, 0, initial, null);
+        this.maxVersions = Math.max(1, maxVersions);
+        this.numVersions = new LongAdder();
+        this.numBytes = new LongAdder();
+        this.numCollected = new LongAdder();
+    }
+
+    /**
+     * Install a new version of an object, and collect the versions behind
+     * it that can no longer be read.
+     *
+     * @param oid The object.
+     * @param vnum The version number.
+     * @param timestamp The commit timestamp of the version, larger than any
+     *                  installed for the object before.
+     * @param value The value.
+     * @param horizon The oldest timestamp a snapshot can read at.
+     */
+    public void install(long oid, long vnum, long timestamp, byte[] value, long horizon) {
+        Version head = heads.compute(oid,
+                (k, newest) -> new Version(vnum, timestamp, value, newest == null ? initial : newest));
+        numVersions.increment();
+        numBytes.add(value.length);
+
+        Version cur = head;
+        for (int kept = 1; cur.older != null; kept++) {
+            if (cur.timestamp <= horizon || kept == maxVersions) {
+                collect(cur.older);
+                cur.older = null;
+                return;
+            }
+            cur = cur.older;
+        }
+    }
+
+    /*
+     * Count the versions from [tail] on as collected.
+     */
+    private void collect(Version tail) {
+        for (Version v = tail; v != null; v = v.older) {
+            if (v == initial) {
+                continue;
+            }
+            numVersions.decrement();
+            numBytes.add(-v.value.length);
+            numCollected.increment();
+        }
+    }
+
+    /**
+     * Return the version of an object a snapshot at a timestamp reads: the
+     * newest one committed at or before it.
+     *
+     * @param oid The object.
+     * @param timestamp The timestamp of the snapshot.
+     * @return The version, or {@code null} if it was already collected.
+     */
+    public Version read(long oid, long timestamp) {
+        Version v = heads.get(oid);
+        if (v == null) {
+            return initial;
+        }
+        for (; v != null; v = v.older) {
+            if (v.timestamp <= timestamp) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of versions held, not counting initial values.
+     */
+    public long getNumVersions() {
+        return numVersions.sum();
+    }
+
+    /**
+     * @return The bytes of the values of the versions held.
+     */
+    public long getNumBytes() {
+        return numBytes.sum();
+    }
+
+    /**
+     * @return The number of versions collected.
+     */
+    public long getNumCollected() {
+        return numCollected.sum();
+    }
+}
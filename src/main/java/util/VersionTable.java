@@ -0,0 +1,360 @@
+package util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A concurrent map from oid to the last version of the object, without boxing.
+ * Built for many readers and few writers per object, with versions that only
+ * move forward.
+ *
+ * The objects a store is created with are a contiguous range of oids, so
+ * their versions live in a dense array indexed by {@code oid - base}, where a
+ * lookup is a single volatile read. Objects outside the range go to an open
+ * addressing table that is read optimistically and only locked to grow.
+ */
+public class VersionTable {
+    /**
+     * The version of an object the table has not seen.
+     */
+    public static final long ABSENT = -1;
+
+    /*
+     * Marks a free slot in the overflow table. Oids are never negative.
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    /*
+     * The first oid of the dense range.
+     */
+    private final long base;
+
+    /*
+     * The versions of oids [base, base + dense.length()), or ABSENT.
+     */
+    private final AtomicLongArray dense;
+
+    /*
+     * The open addressing table for the other oids. Slot i holds the oid in
+     * keys[i] and its version in values[i]. A slot's key is set once, by CAS
+     * from EMPTY, so a key never moves until the table grows. A claimed
+     * slot reads ABSENT until its version is set.
+     */
+    private volatile AtomicLongArray keys;
+    private volatile AtomicLongArray values;
+
+    /*
+     * The number of keys in the overflow table.
+     */
+    private final AtomicInteger size;
+
+    /*
+     * Writers to the overflow table hold it shared, growing holds it
+     * exclusively; readers validate an optimistic stamp instead.
+     */
+    private final StampedLock resize;
+
+    /**
+     * Create an empty table.
+     */
+    public VersionTable() {
+        this(0, 0);
+    }
+
+    /**
+     * Create a table with a dense range of oids.
+     *
+     * @param base The first oid of the range.
+     * @param length The number of oids in the range.
+     */
+    public VersionTable(long base, int length) {
+        this.base = base;
+        this.dense = filledArray(length, ABSENT);
+        this.keys = filledArray(MIN_CAPACITY, EMPTY);
+        this.values = filledArray(MIN_CAPACITY, ABSENT);
+        this.size = new AtomicInteger();
+        this.resize = new StampedLock();
+    }
+
+    /**
+     * Create a table for a dense range of oids that all start at the same
+     * version.
+     *
+     * @param base The first oid of the range.
+     * @param length The number of oids in the range.
+     * @param vnum The initial version of every object in the range.
+     * @return The table.
+     */
+    public static VersionTable filled(long base, int length, long vnum) {
+        VersionTable table = new VersionTable(base, length);
+        for (int i = 0; i < length; i++) {
+            table.dense.lazySet(i, vnum);
+        }
+        return table;
+    }
+
+    private static AtomicLongArray filledArray(int length, long value) {
+        AtomicLongArray res = new AtomicLongArray(length);
+        for (int i = 0; i < length; i++) {
+            res.lazySet(i, value);
+        }
+        return res;
+    }
+
+    private static int hash(long oid) {
+        return (int) ((oid * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    /*
+     * Return the index of [oid] in the dense array, or -1.
+     */
+    private int denseIndex(long oid) {
+        long i = oid - base;
+        return i >= 0 && i < dense.length() ? (int) i : -1;
+    }
+
+    /**
+     * Get the last version of an object.
+     *
+     * @param oid ID of the object
+     * @return The version number, or {@link VersionTable#ABSENT} if the table
+     *         has not seen the object.
+     */
+    public long get(long oid) {
+        int i = denseIndex(oid);
+        if (i >= 0) {
+            return dense.get(i);
+        }
+        long stamp = resize.tryOptimisticRead();
+        long res = find(keys, values, oid);
+        if (!resize.validate(stamp)) {
+            stamp = resize.readLock();
+            try {
+                res = find(keys, values, oid);
+            } finally {
+                resize.unlockRead(stamp);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Receives the entries of a table.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(long oid, long vnum);
+    }
+
+    /**
+     * Visit every object the table has seen in ascending oid order. Writers
+     * may run concurrently, in which case each object is visited with a
+     * version it had during the call.
+     *
+     * @param visitor Receives each object and its version.
+     */
+    public void forEachSorted(Visitor visitor) {
+        long[] others = overflowKeys();
+        Arrays.sort(others);
+        int next = 0;
+        while (next < others.length && others[next] < base) {
+            visitIfPresent(visitor, others[next++]);
+        }
+        for (int i = 0; i < dense.length(); i++) {
+            long vnum = dense.get(i);
+            if (vnum != ABSENT) {
+                visitor.visit(base + i, vnum);
+            }
+        }
+        while (next < others.length) {
+            visitIfPresent(visitor, others[next++]);
+        }
+    }
+
+    private void visitIfPresent(Visitor visitor, long oid) {
+        long vnum = get(oid);
+        if (vnum != ABSENT) {
+            visitor.visit(oid, vnum);
+        }
+    }
+
+    /*
+     * Return the oids in the overflow table.
+     */
+    private long[] overflowKeys() {
+        long stamp = resize.readLock();
+        try {
+            AtomicLongArray keys = this.keys;
+            long[] res = new long[keys.length()];
+            int n = 0;
+            for (int i = 0; i < keys.length(); i++) {
+                long key = keys.get(i);
+                if (key != EMPTY) {
+                    res[n++] = key;
+                }
+            }
+            return Arrays.copyOf(res, n);
+        } finally {
+            resize.unlockRead(stamp);
+        }
+    }
+
+    /*
+     * Return the version of [oid] in an overflow table, or ABSENT.
+     */
+    private static long find(AtomicLongArray keys, AtomicLongArray values, long oid) {
+        int mask = keys.length() - 1;
+        for (int i = hash(oid) & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+            long key = keys.get(i);
+            if (key == oid) {
+                return values.get(i);
+            }
+            if (key == EMPTY) {
+                return ABSENT;
+            }
+        }
+        return ABSENT;
+    }
+
+    /**
+     * Set the version of an object, even if that moves it backwards.
+     *
+     * @param oid ID of the object
+     * @param vnum The version number.
+     */
+    public void set(long oid, long vnum) {
+        int i = denseIndex(oid);
+        if (i >= 0) {
+            dense.set(i, vnum);
+            return;
+        }
+        while (true) {
+            long stamp = resize.readLock();
+            try {
+                int slot = slot(oid);
+                if (slot >= 0) {
+                    values.set(slot, vnum);
+                    break;
+                }
+            } finally {
+                resize.unlockRead(stamp);
+            }
+            // filled by concurrent inserts before any of them grew it
+            growIfFull();
+        }
+        growIfFull();
+    }
+
+    /**
+     * Move the version of an object forward.
+     *
+     * @param oid ID of the object
+     * @param vnum The version number.
+     * @return {@code true} iff the version was older than {@code vnum} and is
+     *         now {@code vnum}.
+     */
+    public boolean advance(long oid, long vnum) {
+        int i = denseIndex(oid);
+        if (i >= 0) {
+            return advance(dense, i, vnum);
+        }
+        boolean res;
+        while (true) {
+            long stamp = resize.readLock();
+            try {
+                int slot = slot(oid);
+                if (slot >= 0) {
+                    res = advance(values, slot, vnum);
+                    break;
+                }
+            } finally {
+                resize.unlockRead(stamp);
+            }
+            // filled by concurrent inserts before any of them grew it
+            growIfFull();
+        }
+        growIfFull();
+        return res;
+    }
+
+    private static boolean advance(AtomicLongArray versions, int i, long vnum) {
+        while (true) {
+            long cur = versions.get(i);
+            if (cur >= vnum) {
+                return false;
+            }
+            if (versions.compareAndSet(i, cur, vnum)) {
+                return true;
+            }
+        }
+    }
+
+    /*
+     * Return the slot of [oid] in the overflow table, claiming one if the oid
+     * is new, or -1 if the oid is new and every slot is taken. Must hold
+     * [resize] shared.
+     */
+    private int slot(long oid) {
+        AtomicLongArray keys = this.keys;
+        int mask = keys.length() - 1;
+        int i = hash(oid) & mask;
+        for (int n = 0; n <= mask; ) {
+            long key = keys.get(i);
+            if (key == oid) {
+                return i;
+            }
+            if (key == EMPTY) {
+                if (keys.compareAndSet(i, EMPTY, oid)) {
+                    size.incrementAndGet();
+                    return i;
+                }
+                // lost the slot, look at who won it
+                continue;
+            }
+            i = (i + 1) & mask;
+            n++;
+        }
+        return -1;
+    }
+
+    /*
+     * Double the overflow table once it is half full.
+     */
+    private void growIfFull() {
+        if (size.get() * 2 < keys.length()) {
+            return;
+        }
+        long stamp = resize.writeLock();
+        try {
+            AtomicLongArray oldkeys = keys;
+            AtomicLongArray oldvalues = values;
+            if (size.get() * 2 < oldkeys.length()) {
+                return;
+            }
+            int capacity = oldkeys.length() * 2;
+            AtomicLongArray newkeys = filledArray(capacity, EMPTY);
+            AtomicLongArray newvalues = filledArray(capacity, ABSENT);
+            int mask = capacity - 1;
+            for (int j = 0; j < oldkeys.length(); j++) {
+                long key = oldkeys.get(j);
+                if (key == EMPTY) {
+                    continue;
+                }
+                int i = hash(key) & mask;
+                while (newkeys.get(i) != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                newkeys.set(i, key);
+                newvalues.set(i, oldvalues.get(j));
+            }
+            values = newvalues;
+            keys = newkeys;
+        } finally {
+            resize.unlockWrite(stamp);
+        }
+    }
+}
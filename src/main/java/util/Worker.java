@@ -1,5 +1,6 @@
 package util;
 
+import benchmark.Latency;
 import benchmark.WorkerBenchmark;
 
 import java.util.Collection;
@@ -7,8 +8,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
 
 import static java.util.concurrent.Executors.newFixedThreadPool;
 
@@ -58,14 +61,19 @@ public class Worker {
     /*
      * The number of transactions committed by this worker.
      */
-    private int numCommits;
+    private LongAdder numCommits;
 
-    private int numAborts;
+    private LongAdder numAborts;
 
     /*
      * The number of txns aborted because cannot grab lock on the workers's side.
      */
-    public int numAbortLock;
+    public LongAdder numAbortLock;
+
+    /*
+     * Time to prepare a transaction at all of the stores it touches.
+     */
+    private Latency prepareLatency;
 
     public Store homestore;
 
@@ -76,6 +84,23 @@ public class Worker {
 
     public ExecutorService pool;
 
+    /*
+     * The delays of the messages this worker's transactions send to stores,
+     * or null if they are not delayed.
+     */
+    public Network network;
+
+    /*
+     * Delivers the messages this worker's transactions send to stores.
+     */
+    public MessageDispatcher dispatcher = ScheduledDispatcher.getDefault();
+
+    /*
+     * The clock of the multi-version stores, or null if the stores keep no
+     * values. With a clock, read-only transactions read a snapshot.
+     */
+    public SnapshotClock clock;
+
 
     public Worker(int wid, List<Store> storelist, boolean concur) {
         lastversion = new ConcurrentHashMap<>();
@@ -85,25 +110,27 @@ public class Worker {
         this.wid = wid;
         this.storelist = storelist;
         WORKER_CONCUR = concur;
-        numCommits = 0;
-        numAborts = 0;
-        numAbortLock = 0;
+        numCommits = new LongAdder();
+        numAborts = new LongAdder();
+        numAbortLock = new LongAdder();
+        prepareLatency = new Latency();
         if (concur) {
             pool = newFixedThreadPool(8);
             // pool = newCachedThreadPool();
         }
     }
 
-    public Worker(int wid, List<Store> storelist, boolean concur, boolean original, HashMap<Long, Long> lastversion, HashMap<Long, Store> location, int poolsize, Store homestore, int home_inv, int non_home_inv) {
-        locktable = new ObjectLockTable();
+    public Worker(int wid, List<Store> storelist, boolean concur, boolean original, HashMap<Long, Long> lastversion, HashMap<Long, Store> location, int poolsize, Store homestore, int home_inv, int non_home_inv, ObjectLockTable.Kind lockKind, ObjectLockTable.WaitPolicy lockWait, long lockWaitMillis) {
+        locktable = new ObjectLockTable(lockKind, lockWait, lockWaitMillis);
         prepared = ConcurrentHashMap.newKeySet();
         this.wid = wid;
         this.storelist = storelist;
         WORKER_CONCUR = concur;
         ORIGINAL = original;
-        numCommits = 0;
-        numAborts = 0;
-        numAbortLock = 0;
+        numCommits = new LongAdder();
+        numAborts = new LongAdder();
+        numAbortLock = new LongAdder();
+        prepareLatency = new Latency();
         if (concur) {
             pool = newFixedThreadPool(poolsize);
             // pool = newCachedThreadPool();
@@ -141,6 +168,28 @@ public class Worker {
         return locktable.grabLock(reads, writes, tid);
     }
 
+    /*
+     * grab the locks of a transaction.
+     */
+    public boolean grablock(LockRequest locks, long tid) {
+        return locktable.grabLock(locks, tid);
+    }
+
+    /*
+     * release the locks of a transaction.
+     */
+    public void releaselock(LockRequest locks, long tid) {
+        locktable.releaseLock(locks, tid);
+    }
+
+    /*
+     * Return true iff transaction [tid] was wounded by an older one waiting
+     * for its locks.
+     */
+    public boolean isWounded(long tid) {
+        return locktable.isWounded(tid);
+    }
+
     /*
      * release locks.
      */
@@ -165,12 +214,14 @@ public class Worker {
         if (ORIGINAL) {
             try {
                 Txn newtxn = queue.take();
+                long start = System.nanoTime();
                 boolean res = newtxn.original_prepare();
+                prepareLatency.record(System.nanoTime() - start);
                 if (res) {
                     newtxn.original_commit();
-                    numCommits++;
+                    numCommits.increment();
                 } else {
-                    numAborts++;
+                    numAborts.increment();
                 }
             } catch (InterruptedException e) {
                 // TODO Auto-generated catch block
@@ -179,12 +230,14 @@ public class Worker {
         } else {
             try {
                 Txn newtxn = queue.take();
+                long start = System.nanoTime();
                 boolean res = newtxn.prepare();
+                prepareLatency.record(System.nanoTime() - start);
                 if (res) {
                     newtxn.commit();
-                    numCommits++;
+                    numCommits.increment();
                 } else {
-                    numAborts++;
+                    numAborts.increment();
                 }
             } catch (InterruptedException e) {
                 // TODO Auto-generated catch block
@@ -194,25 +247,65 @@ public class Worker {
     }
 
 
+    /*
+     * Take a transaction from the generator and run it without blocking:
+     * prepare it, then commit it if it prepared. The result completes with
+     * whether it committed, once every message it waits for is delivered.
+     */
+    public CompletableFuture<Boolean> startnewtxnAsync() throws InterruptedException {
+        Txn newtxn = queue.take();
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> res;
+        if (ORIGINAL) {
+            res = newtxn.original_prepareAsync().thenCompose(prepared -> {
+                prepareLatency.record(System.nanoTime() - start);
+                if (!prepared) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                return newtxn.original_commitAsync().thenApply(v -> true);
+            });
+        } else {
+            res = newtxn.prepareAsync().thenApply(prepared -> {
+                prepareLatency.record(System.nanoTime() - start);
+                if (prepared) {
+                    newtxn.commit();
+                }
+                return prepared;
+            });
+        }
+        return res.whenComplete((committed, e) -> {
+            if (e != null) {
+                e.printStackTrace();
+            } else if (committed) {
+                numCommits.increment();
+            } else {
+                numAborts.increment();
+            }
+        });
+    }
+
+
     @Override
     public String toString() {
         return String.format("This worker completed %d transactions, aborted %d transactions in total, %d of which were due to a lock conflict",
-                numCommits, numAborts, numAbortLock);
+                getNumCommits(), getNumAborts(), getNumAbortLock());
     }
 
     public int getNumCommits() {
-        return numCommits;
+        return (int) numCommits.sum();
     }
 
     public int getNumAborts() {
-        return numAborts;
+        return (int) numAborts.sum();
     }
 
     public int getNumAbortLock() {
-        return numAbortLock;
+        return (int) numAbortLock.sum();
     }
 
     public WorkerBenchmark getCSVData() {
-        return new WorkerBenchmark(getNumCommits(), getNumAborts(), getNumAbortLock());
+        return new WorkerBenchmark(getNumCommits(), getNumAborts(), getNumAbortLock(), locktable.size(),
+                locktable.getWaitLatency(), locktable.getNumDied(), locktable.getNumWounded(), locktable.getNumWaitTimeout(),
+                prepareLatency);
     }
 }
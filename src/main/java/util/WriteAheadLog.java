@@ -0,0 +1,465 @@
+package util;
+
+import benchmark.Latency;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of the transactions a store prepares, commits and aborts,
+ * appended to preallocated segment files that are memory-mapped.
+ *
+ * Each record is laid out as
+ * <pre>
+ *   int length, byte type, long tid, int count,
+ *   count * (long oid, long vnum), int crc
+ * </pre>
+ * where {@code length} covers everything after itself and {@code crc} is the
+ * CRC32 of the bytes from {@code type} up to itself. The pairs are the
+ * versions the transaction writes. A zero length marks the end of the
+ * records in a segment.
+ *
+ * Appending only copies the record into the mapped segment. Records become
+ * durable when the segment is forced, which depends on the {@link SyncPolicy}:
+ * with {@link SyncPolicy#Always} every {@link WriteAheadLog#sync(long)} waits
+ * for a force, but one force covers every record appended before it, so
+ * concurrent committers share it.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    /**
+     * When records are forced to disk.
+     */
+    public enum SyncPolicy {
+        /*
+         * Before a prepare or commit returns.
+         */
+        Always,
+
+        /*
+         * Every few milliseconds on a background thread.
+         */
+        Interval,
+
+        /*
+         * Never, so the OS writes the pages back when it wants to.
+         */
+        None
+    }
+
+    /**
+     * The type of a record.
+     */
+    public static final byte PREPARE = 1;
+    public static final byte COMMIT = 2;
+    public static final byte ABORT = 3;
+
+    /*
+     * The bytes of a record besides its pairs.
+     */
+    private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 4 + 4;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final SyncPolicy policy;
+
+    /*
+     * The segment being appended to, and its index.
+     */
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+
+    /*
+     * The log sequence number past the last record appended, and past the
+     * last record forced. The LSN of a position is segmentIndex *
+     * segmentBytes + the position in the segment.
+     */
+    private long written;
+    private final AtomicLong durable;
+
+    /*
+     * Serializes forces. Appends hold the log's own monitor instead, and a
+     * force may take that monitor while holding this one, never the other
+     * way around.
+     */
+    private final Object syncLock;
+
+    private final CRC32 crc;
+    private final Thread syncer;
+
+    private final long created;
+    private final LongAdder numRecords;
+    private final LongAdder numBytes;
+    private final Latency syncLatency;
+
+    /**
+     * Open a new log in a directory, replacing any segments there.
+     *
+     * @param dir The directory of the segment files, created if needed.
+     * @param segmentBytes The size each segment file is preallocated to.
+     * @param policy When records are forced to disk.
+     * @param syncIntervalMillis How often records are forced with
+     *                           {@link SyncPolicy#Interval}.
+     * @throws IOException If the first segment cannot be created.
+     */
+    public WriteAheadLog(Path dir, int segmentBytes, SyncPolicy policy, long syncIntervalMillis) throws IOException {
+        this(dir, segmentBytes, policy, syncIntervalMillis, -1);
+    }
+
+    /**
+     * Open a log in a directory to append after the records up to an LSN,
+     * as found by {@link WriteAheadLog#replay(Path, int, long, RecordVisitor)}.
+     *
+     * @param dir The directory of the segment files, created if needed.
+     * @param segmentBytes The size each segment file is preallocated to.
+     * @param policy When records are forced to disk.
+     * @param syncIntervalMillis How often records are forced with
+     *                           {@link SyncPolicy#Interval}.
+     * @param lsn The LSN to append at, or -1 to replace any segments.
+     * @throws IOException If the segment cannot be opened.
+     */
+    public WriteAheadLog(Path dir, int segmentBytes, SyncPolicy policy, long syncIntervalMillis, long lsn)
+            throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.policy = policy;
+        this.durable = new AtomicLong();
+        this.syncLock = new Object();
+        this.crc = new CRC32();
+        this.created = System.nanoTime();
+        this.numRecords = new LongAdder();
+        this.numBytes = new LongAdder();
+        this.syncLatency = new Latency();
+        Files.createDirectories(dir);
+        if (lsn < 0) {
+            openSegment(0, true);
+        } else {
+            openSegment((int) (lsn / segmentBytes), false);
+            segment.position((int) (lsn % segmentBytes));
+            written = lsn;
+            durable.set(lsn);
+        }
+        if (policy == SyncPolicy.Interval) {
+            syncer = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(syncIntervalMillis);
+                        sync(appended());
+                    }
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }, "wal-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * @param dir The directory of a log.
+     * @param index The index of a segment.
+     * @return The path of the segment file.
+     */
+    public static Path segmentPath(Path dir, int index) {
+        return dir.resolve(String.format("wal-%06d.log", index));
+    }
+
+    /*
+     * Create and map segment [index], emptying it if [truncate]. Must hold
+     * the log's monitor.
+     */
+    private void openSegment(int index, boolean truncate) throws IOException {
+        channel = truncate
+                ? FileChannel.open(segmentPath(dir, index), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(segmentPath(dir, index), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segmentIndex = index;
+        written = (long) index * segmentBytes;
+    }
+
+    /**
+     * Append a prepare record with the versions a transaction writes.
+     *
+     * @param tid ID of the transaction
+     * @param access The objects the transaction reads and writes.
+     * @return The LSN past the record.
+     */
+    public long appendPrepare(long tid, LockRequest access) {
+        return append(PREPARE, tid, access);
+    }
+
+    /**
+     * Append a commit record with the versions a transaction writes.
+     *
+     * @param tid ID of the transaction
+     * @param access The objects the transaction reads and writes.
+     * @return The LSN past the record.
+     */
+    public long appendCommit(long tid, LockRequest access) {
+        return append(COMMIT, tid, access);
+    }
+
+    /**
+     * Append an abort record for a transaction that prepared.
+     *
+     * @param tid ID of the transaction
+     * @return The LSN past the record.
+     */
+    public long appendAbort(long tid) {
+        return append(ABORT, tid, null);
+    }
+
+    private synchronized long append(byte type, long tid, LockRequest access) {
+        int count = access == null ? 0 : access.numWrites();
+        int size = RECORD_OVERHEAD + 16 * count;
+        // Leave room for the zero length that ends the segment
+        if (size + 4 > segmentBytes) {
+            throw new IllegalArgumentException("Record of " + size + " bytes does not fit in a segment");
+        }
+        if (segment.position() + size + 4 > segmentBytes) {
+            rollSegment();
+        }
+        int start = segment.position();
+        segment.putInt(size - 4);
+        segment.put(type);
+        segment.putLong(tid);
+        segment.putInt(count);
+        for (int i = 0; access != null && i < access.size(); i++) {
+            if (access.isWrite(i)) {
+                segment.putLong(access.oid(i));
+                segment.putLong(access.vnum(i));
+            }
+        }
+        ByteBuffer body = segment.duplicate();
+        body.position(start + 4);
+        body.limit(segment.position());
+        crc.reset();
+        crc.update(body);
+        segment.putInt((int) crc.getValue());
+        // End the records here, in case the segment held a torn tail
+        segment.putInt(segment.position(), 0);
+        written += size;
+        numRecords.increment();
+        numBytes.add(size);
+        return written;
+    }
+
+    /*
+     * Force the current segment and move on to the next one. Must hold the
+     * log's monitor.
+     */
+    private void rollSegment() {
+        segment.force();
+        markDurable(written);
+        try {
+            channel.close();
+            openSegment(segmentIndex + 1, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     * Record that the records up to [lsn] are durable.
+     */
+    private void markDurable(long lsn) {
+        long cur;
+        while ((cur = durable.get()) < lsn && !durable.compareAndSet(cur, lsn)) {
+            // raced with another force, retry
+        }
+    }
+
+    /**
+     * @return The LSN past the last record appended.
+     */
+    public synchronized long appended() {
+        return written;
+    }
+
+    /**
+     * Delete the segments that only hold records before an LSN, once a
+     * checkpoint covers them.
+     *
+     * @param lsn The LSN the log is replayed from.
+     * @throws IOException If a segment cannot be deleted.
+     */
+    public void deleteSegmentsBefore(long lsn) throws IOException {
+        int last = (int) (lsn / segmentBytes);
+        for (int index = last - 1; index >= 0; index--) {
+            if (!Files.deleteIfExists(segmentPath(dir, index))) {
+                break;
+            }
+        }
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    public int getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * Receives the records of a log.
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        /**
+         * @param type The type of the record.
+         * @param tid ID of the transaction
+         * @param oids The objects written.
+         * @param vnums The versions written, in the order of {@code oids}.
+         */
+        void visit(byte type, long tid, long[] oids, long[] vnums);
+    }
+
+    /**
+     * Read the records of a log from an LSN up to the first record that is
+     * missing or torn.
+     *
+     * @param dir The directory of the segment files.
+     * @param segmentBytes The size of each segment file.
+     * @param lsn The LSN to read from.
+     * @param visitor Receives each record.
+     * @return The LSN past the last record read, where the log can be
+     *         reopened to append.
+     * @throws IOException If a segment cannot be read.
+     */
+    public static long replay(Path dir, int segmentBytes, long lsn, RecordVisitor visitor) throws IOException {
+        int index = (int) (lsn / segmentBytes);
+        int position = (int) (lsn % segmentBytes);
+        CRC32 crc = new CRC32();
+        while (Files.exists(segmentPath(dir, index))) {
+            MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(segmentPath(dir, index), StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), segmentBytes));
+            }
+            segment.position(position);
+            while (segment.remaining() >= RECORD_OVERHEAD) {
+                int start = segment.position();
+                int length = segment.getInt();
+                if (length < RECORD_OVERHEAD - 4 || length > segment.remaining()) {
+                    segment.position(start);
+                    break;
+                }
+                ByteBuffer body = segment.duplicate();
+                body.limit(start + length);
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != segment.getInt(start + length)) {
+                    // torn record, the end of the log
+                    return (long) index * segmentBytes + start;
+                }
+                byte type = segment.get();
+                long tid = segment.getLong();
+                int count = segment.getInt();
+                long[] oids = new long[count];
+                long[] vnums = new long[count];
+                for (int i = 0; i < count; i++) {
+                    oids[i] = segment.getLong();
+                    vnums[i] = segment.getLong();
+                }
+                segment.getInt();
+                visitor.visit(type, tid, oids, vnums);
+            }
+            long end = (long) index * segmentBytes + segment.position();
+            if (segment.remaining() >= 4 && segment.getInt(segment.position()) == 0
+                    && Files.exists(segmentPath(dir, index + 1))) {
+                // rolled over to the next segment
+                index++;
+                position = 0;
+                continue;
+            }
+            return end;
+        }
+        return (long) index * segmentBytes + position;
+    }
+
+    /**
+     * Make the records up to an LSN durable if the sync policy forces records
+     * on commit, waiting for a force already under way if it covers them.
+     *
+     * @param lsn The LSN returned by an append.
+     */
+    public void syncIfRequired(long lsn) {
+        if (policy == SyncPolicy.Always) {
+            sync(lsn);
+        }
+    }
+
+    /**
+     * Make the records up to an LSN durable. A single force covers every
+     * record appended before it starts, so threads that wait for one another
+     * here share it.
+     *
+     * @param lsn The LSN returned by an append.
+     */
+    public void sync(long lsn) {
+        if (durable.get() >= lsn) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durable.get() >= lsn) {
+                return;
+            }
+            long end;
+            MappedByteBuffer current;
+            synchronized (this) {
+                end = written;
+                current = segment;
+            }
+            long start = System.nanoTime();
+            current.force();
+            syncLatency.record(System.nanoTime() - start);
+            markDurable(end);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.interrupt();
+        }
+        synchronized (this) {
+            segment.force();
+            channel.close();
+        }
+    }
+
+    public int getNumRecords() {
+        return (int) numRecords.sum();
+    }
+
+    public long getNumBytes() {
+        return numBytes.sum();
+    }
+
+    /**
+     * @return The records appended per second since the log was opened.
+     */
+    public double getRecordsPerSecond() {
+        double seconds = (System.nanoTime() - created) / 1e9;
+        return seconds <= 0 ? 0 : numRecords.sum() / seconds;
+    }
+
+    /**
+     * @return The time each force took.
+     */
+    public Latency getSyncLatency() {
+        return syncLatency;
+    }
+}
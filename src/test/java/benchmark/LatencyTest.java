@@ -0,0 +1,42 @@
+package benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyTest {
+    @Test
+    void percentileTest() {
+        Latency latency = new Latency();
+        assertEquals(0.0, latency.getPercentileMicros(99));
+
+        // 1us .. 1000us
+        for (int i = 1; i <= 1000; i++) {
+            latency.record(i * 1000L);
+        }
+        assertEquals(1000, latency.getCount());
+        assertEquals(500.5, latency.getMeanMicros());
+
+        double p50 = latency.getPercentileMicros(50);
+        double p99 = latency.getPercentileMicros(99);
+        double p999 = latency.getPercentileMicros(99.9);
+        // percentiles round up by at most one bucket, i.e. 12.5%
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125, "p50 was " + p50);
+        assertTrue(p99 >= 990 && p99 <= 990 * 1.125, "p99 was " + p99);
+        assertTrue(p999 >= 999 && p999 <= 999 * 1.125, "p999 was " + p999);
+        assertTrue(latency.getPercentileMicros(100) >= 1000);
+    }
+
+    @Test
+    void samplePercentileTest() {
+        Latency sizes = new Latency();
+        for (int i = 1; i <= 4; i++) {
+            sizes.record(i);
+        }
+        // small samples are exact
+        assertEquals(2.5, sizes.getMean());
+        assertEquals(2, sizes.getPercentile(50));
+        assertEquals(4, sizes.getPercentile(99));
+    }
+}
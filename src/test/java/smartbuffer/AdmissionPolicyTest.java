@@ -0,0 +1,57 @@
+package smartbuffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class AdmissionPolicyTest {
+    @Test
+    void rejectTest() {
+        AdmissionPolicy policy = new AdmissionPolicy(2, 3, AdmissionPolicy.Mode.Reject, 0);
+
+        // an oversized transaction still gets into an empty buffer
+        assertTrue(policy.admit(5));
+        assertFalse(policy.admit(1));
+        policy.release(5);
+
+        assertTrue(policy.admit(2));
+        assertFalse(policy.admit(2));
+        assertTrue(policy.admit(1));
+        assertFalse(policy.admit(0));
+        assertEquals(2, policy.getNumTxns());
+        assertEquals(3, policy.getNumDeps());
+        assertEquals(2, policy.getPeakTxns());
+        assertEquals(3, policy.getNumRejected());
+    }
+
+    @Test
+    void blockTest() throws InterruptedException, ExecutionException, TimeoutException {
+        AdmissionPolicy policy = new AdmissionPolicy(1, 0, AdmissionPolicy.Mode.Block, 10000);
+        assertTrue(policy.admit(1));
+
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> policy.admit(1));
+        try {
+            waiter.get(100, TimeUnit.MILLISECONDS);
+            fail("admitted into a full buffer");
+        } catch (TimeoutException e) {
+            // still waiting for room
+        }
+
+        policy.release(1);
+        assertTrue(waiter.get(1, TimeUnit.SECONDS));
+
+        // give up once the wait runs out
+        AdmissionPolicy bounded = new AdmissionPolicy(1, 0, AdmissionPolicy.Mode.Block, 50);
+        assertTrue(bounded.admit(1));
+        assertFalse(bounded.admit(1));
+        assertEquals(1, bounded.getNumRejected());
+    }
+}
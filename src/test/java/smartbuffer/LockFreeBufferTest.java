@@ -0,0 +1,8 @@
+package smartbuffer;
+
+class LockFreeBufferTest extends SmartBufferTest {
+    @Override
+    SmartBuffer createInstance() {
+        return new LockFreeBuffer();
+    }
+}
@@ -0,0 +1,8 @@
+package smartbuffer;
+
+class ShardedBufferTest extends SmartBufferTest {
+    @Override
+    SmartBuffer createInstance() {
+        return new ShardedBuffer(4);
+    }
+}
@@ -8,11 +8,18 @@ import util.Store;
 import util.StoreSB;
 
 import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
 
 abstract class SmartBufferTest {
     private SmartBuffer buffer;
@@ -96,6 +103,120 @@ abstract class SmartBufferTest {
         }
     }
 
+    @Test
+    void multipleWaitersTest() throws InterruptedException, ExecutionException, TimeoutException {
+        store.setversion(new ObjectVN(1, 0));
+
+        HashSet<ObjectVN> deps = new HashSet<>();
+        deps.add(new ObjectVN(1, 1));
+
+        store.addpending(1);
+        Future<Boolean> future1 = buffer.add(1, deps);
+        store.addpending(2);
+        Future<Boolean> future2 = buffer.add(2, deps);
+
+        store.setversion(new ObjectVN(1, 1));
+        buffer.remove(new ObjectVN(1, 1));
+
+        assertTrue(future1.get(5, TimeUnit.SECONDS));
+        assertTrue(future2.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void removeAllTest() throws InterruptedException, ExecutionException, TimeoutException {
+        store.setversion(new ObjectVN(1, 0));
+        store.setversion(new ObjectVN(2, 0));
+        store.setversion(new ObjectVN(3, 0));
+
+        HashSet<ObjectVN> deps1 = new HashSet<>();
+        deps1.add(new ObjectVN(1, 1));
+        deps1.add(new ObjectVN(2, 1));
+        store.addpending(1);
+        Future<Boolean> future1 = buffer.add(1, deps1);
+
+        HashSet<ObjectVN> deps2 = new HashSet<>();
+        deps2.add(new ObjectVN(1, 0));
+        deps2.add(new ObjectVN(3, 1));
+        store.addpending(2);
+        Future<Boolean> future2 = buffer.add(2, deps2);
+
+        HashSet<ObjectVN> commit = new HashSet<>();
+        commit.add(new ObjectVN(1, 1));
+        commit.add(new ObjectVN(2, 1));
+        store.setversion(new ObjectVN(1, 1));
+        store.setversion(new ObjectVN(2, 1));
+        buffer.removeAll(commit);
+
+        assertTrue(future1.get(5, TimeUnit.SECONDS));
+        assertFalse(future2.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void timeoutTest() {
+        store.setversion(new ObjectVN(1, 0));
+
+        HashSet<ObjectVN> deps = new HashSet<>();
+        deps.add(new ObjectVN(1, 1));
+        store.addpending(1);
+        CompletableFuture<ResolutionListener.Reason> result = new CompletableFuture<>();
+        buffer.add(1, deps, 50, (tid, outcome, reason) -> result.complete(reason));
+
+        try {
+            assertEquals(ResolutionListener.Reason.Timeout, result.get(5, TimeUnit.SECONDS));
+            assertEquals(1, buffer.getNumTimeout());
+            assertEquals(0, buffer.getNumLink());
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            fail("transaction did not time out");
+        }
+    }
+
+    @Test
+    void cancelAllTest() {
+        store.setversion(new ObjectVN(1, 0));
+        store.setversion(new ObjectVN(2, 0));
+
+        HashSet<ObjectVN> deps = new HashSet<>();
+        deps.add(new ObjectVN(1, 1));
+        deps.add(new ObjectVN(2, 1));
+        store.addpending(1);
+        CompletableFuture<ResolutionListener.Reason> result = new CompletableFuture<>();
+        buffer.add(1, deps, (tid, outcome, reason) -> result.complete(reason));
+
+        // the writer of (1, 1) aborted
+        HashSet<ObjectVN> aborted = new HashSet<>();
+        aborted.add(new ObjectVN(1, 1));
+        buffer.cancelAll(aborted);
+
+        try {
+            assertEquals(ResolutionListener.Reason.WriterAborted, result.get(5, TimeUnit.SECONDS));
+            assertEquals(1, buffer.getNumCascade());
+            assertEquals(0, buffer.getNumLink());
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            fail("transaction was not ejected");
+        }
+    }
+
+    @Test
+    void deferredResolverTest() throws InterruptedException, ExecutionException, TimeoutException {
+        ExecutorService resolver = Executors.newSingleThreadExecutor();
+        buffer.setResolver(resolver);
+        store.setversion(new ObjectVN(1, 0));
+
+        HashSet<ObjectVN> deps = new HashSet<>();
+        deps.add(new ObjectVN(1, 1));
+        store.addpending(1);
+        Future<Boolean> future = buffer.add(1, deps);
+
+        store.setversion(new ObjectVN(1, 1));
+        buffer.remove(new ObjectVN(1, 1));
+
+        try {
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        } finally {
+            resolver.shutdown();
+        }
+    }
+
     @BeforeEach
     void setUp() {
         buffer = createInstance();
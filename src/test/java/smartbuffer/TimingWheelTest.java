@@ -0,0 +1,46 @@
+package smartbuffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+    @Test
+    void cancelTest() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel(1, 16);
+        AtomicBoolean cancelledRan = new AtomicBoolean();
+        CountDownLatch ran = new CountDownLatch(1);
+        TimingWheel.Entry cancelled = wheel.schedule(20, () -> cancelledRan.set(true));
+        wheel.schedule(20, ran::countDown);
+        cancelled.cancel();
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        assertFalse(cancelledRan.get());
+    }
+
+    @Test
+    void cancelReleasesTest() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel(1, 16);
+        Object captured = new Object();
+        WeakReference<Object> ref = new WeakReference<>(captured);
+        // due long after the test, so only cancelling lets go of it
+        TimingWheel.Entry entry = wheel.schedule(60_000, captured::hashCode);
+        captured = null;
+        entry.cancel();
+        entry = null;
+
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            Thread.sleep(20);
+            System.gc();
+        }
+        assertNull(ref.get());
+    }
+}
@@ -0,0 +1,199 @@
+package util;
+
+import benchmark.LinkBenchmark;
+import org.junit.jupiter.api.Test;
+import smartbuffer.OptimizedNumLinkBuffer;
+import smartbuffer.SmartBuffer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NetworkTest {
+    @Test
+    void distributionTest() {
+        LatencyDistribution constant = new LatencyDistribution(LatencyDistribution.Kind.Constant, 250.5, 100);
+        LatencyDistribution uniform = new LatencyDistribution(LatencyDistribution.Kind.Uniform, 500, 100);
+        LatencyDistribution longTail = new LatencyDistribution(LatencyDistribution.Kind.LongTail, 500, 400);
+        long longTailSum = 0;
+        long longTailMax = 0;
+        int n = 100000;
+        for (int i = 0; i < n; i++) {
+            // sub-millisecond delays are kept to the nanosecond
+            assertEquals(250500, constant.sampleNanos());
+            long u = uniform.sampleNanos();
+            assertTrue(u >= 400_000 && u <= 600_000);
+            long l = longTail.sampleNanos();
+            assertTrue(l >= 100_000);
+            longTailSum += l;
+            longTailMax = Math.max(longTailMax, l);
+        }
+        double mean = longTailSum / (double) n;
+        assertTrue(mean > 400_000 && mean < 600_000, "mean " + mean);
+        assertTrue(longTailMax > 5 * 500_000);
+    }
+
+    /*
+     * Send 1000 messages on one link and return how many of them may fall due
+     * before the one sent before them.
+     */
+    private static int overtaken(boolean fifo) {
+        Store store = new StoreSB(new OptimizedNumLinkBuffer());
+        Worker worker = new Worker(0, Collections.singletonList(store), false);
+        LinkModel remote = new LinkModel(new LatencyDistribution(LatencyDistribution.Kind.Uniform, 5000, 5000), 0, 0);
+        Network network = new Network(Topology.of(LinkModel.none(), remote), Collections.singletonList(store),
+                fifo, false);
+        int res = 0;
+        long lastEarliest = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long before = System.nanoTime();
+            long delay = network.delayNanos(worker, store);
+            long after = System.nanoTime();
+            // the message falls due between before + delay and after + delay
+            if (lastEarliest != Long.MIN_VALUE && after + delay <= lastEarliest) {
+                res++;
+            }
+            lastEarliest = before + delay;
+        }
+        return res;
+    }
+
+    @Test
+    void fifoTest() {
+        assertEquals(0, overtaken(true));
+        assertTrue(overtaken(false) > 0);
+    }
+
+    @Test
+    void fifoDeliveryTest() throws InterruptedException {
+        Store store = new StoreSB(new OptimizedNumLinkBuffer());
+        Worker worker = new Worker(0, Collections.singletonList(store), false);
+        LinkModel remote = new LinkModel(new LatencyDistribution(LatencyDistribution.Kind.Uniform, 2000, 2000), 0, 0);
+        Network network = new Network(Topology.of(LinkModel.none(), remote), Collections.singletonList(store),
+                true, false);
+        // several threads could run messages due close together at once
+        MessageDispatcher dispatcher = new ScheduledDispatcher(4);
+
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int index = i;
+            sent.add(network.send(dispatcher, worker, store, 0, () -> {
+                if (running.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                delivered.add(index);
+                running.decrementAndGet();
+            }));
+        }
+        CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0])).join();
+        assertEquals(0, overlaps.get());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, (int) delivered.get(i));
+        }
+    }
+
+    @Test
+    void bandwidthTest() {
+        Store store = new StoreSB(new OptimizedNumLinkBuffer());
+        Worker worker = new Worker(0, Collections.singletonList(store), false);
+        // 8 Mbps moves a byte per microsecond, and each object costs 10us more
+        LinkModel slow = new LinkModel(LatencyDistribution.none(), 8, 10);
+        Network network = new Network(Topology.of(slow, slow), Collections.singletonList(store), false, true);
+
+        long first = network.delayNanos(worker, store, 2);
+        long cost = 2 * 10_000 + (Network.HEADER_BYTES + 2 * Network.OBJECT_BYTES) * 1000;
+        assertTrue(first >= cost && first < cost + 1_000_000, "delay " + first);
+        // a message sent right after waits for the first one to leave the link
+        long second = network.delayNanos(worker, store, 2);
+        assertTrue(second >= first + cost - 1_000_000, "delay " + second);
+
+        List<LinkBenchmark> links = network.getCSVData();
+        assertEquals(1, links.size());
+        assertEquals("2", links.get(0).row()[2]);
+    }
+
+    @Test
+    void abortOrderTest() throws InterruptedException {
+        List<Store> stores = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            SmartBuffer buffer = new OptimizedNumLinkBuffer();
+            StoreSB store = new StoreSB(buffer, VersionTable.filled(i * 100, 100, 0), false);
+            buffer.setStore(store);
+            stores.add(store);
+        }
+        StoreSB rejecting = (StoreSB) stores.get(0);
+        StoreSB late = (StoreSB) stores.get(1);
+        Worker worker = new Worker(0, stores, false);
+        for (Store s : stores) {
+            s.setWorkers(Collections.singletonList(worker));
+        }
+        // each object a message carries costs 1ms, so an abort, which carries
+        // none, would arrive long before a large prepare sent just before it
+        LinkModel slow = new LinkModel(LatencyDistribution.none(), 0, 1000);
+        worker.network = new Network(Topology.of(slow, slow), stores, false, true);
+        worker.dispatcher = new ScheduledDispatcher(2);
+
+        HashMap<Store, HashSet<ObjectVN>> reads = new HashMap<>();
+        HashMap<Store, HashSet<ObjectVN>> writes = new HashMap<>();
+        Util.addToSetMap(writes, rejecting, new ObjectVN(0, 1));
+        for (long oid = 100; oid < 150; oid++) {
+            Util.addToSetMap(writes, late, new ObjectVN(oid, 1));
+        }
+        // another transaction holds object 0
+        rejecting.prepare(worker, 999, Collections.emptySet(), writes.get(rejecting), (t, outcome, reason) -> { });
+
+        Txn txn = new Txn(worker, 32, reads, writes);
+        boolean concurrent = Txn.TxnConcurrent;
+        Txn.TxnConcurrent = true;
+        try {
+            CompletableFuture<Boolean> prepared = txn.original_prepareAsync();
+            assertFalse(prepared.join());
+        } finally {
+            Txn.TxnConcurrent = concurrent;
+        }
+        // give a prepare that was overtaken the time to arrive
+        Thread.sleep(100);
+        assertEquals(0, late.pending());
+    }
+
+    @Test
+    void topologyTest() throws IOException {
+        Path file = Files.createTempFile("topology", ".csv");
+        try {
+            Files.write(file, Arrays.asList(
+                    "# worker,store,delay,mean_us,spread_us,bandwidth_mbps,object_us",
+                    "*, *, constant, 100, 0, 0, 0",
+                    "*, remote, constant, 200, 0, 0, 0",
+                    "",
+                    "1, 2, constant, 300, 0, 0, 0"));
+            Topology topology = Topology.load(file);
+            assertEquals(100_000, topology.link(0, 0, true).sampleDelayNanos());
+            assertEquals(200_000, topology.link(0, 2, false).sampleDelayNanos());
+            assertEquals(300_000, topology.link(1, 2, false).sampleDelayNanos());
+            assertEquals(300_000, topology.link(1, 2, true).sampleDelayNanos());
+
+            Files.write(file, Collections.singletonList("*, nowhere, constant, 100, 0, 0, 0"));
+            assertThrows(IllegalArgumentException.class, () -> Topology.load(file));
+            Files.write(file, Collections.singletonList("*, *, constant, 100"));
+            assertThrows(IllegalArgumentException.class, () -> Topology.load(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class ObjectLockTableTest {
+    private static Set<ObjectVN> objects(long... oids) {
+        Set<ObjectVN> res = new HashSet<>();
+        for (long oid : oids) {
+            res.add(new ObjectVN(oid, 0));
+        }
+        return res;
+    }
+
+    private void conflictTest(ObjectLockTable.Kind kind) {
+        ObjectLockTable table = new ObjectLockTable(kind);
+        Set<ObjectVN> none = Collections.emptySet();
+
+        // readers share, writers exclude
+        assertTrue(table.grabLock(objects(1, 2), none, 1L));
+        assertTrue(table.grabLock(objects(1), none, 2L));
+        assertFalse(table.grabLock(none, objects(1), 3L));
+
+        // a failed grab keeps nothing, not even the locks it got first
+        assertFalse(table.grabLock(objects(0), objects(2), 4L));
+        assertTrue(table.grabLock(none, objects(0), 5L));
+
+        // an object both read and written only takes the write lock
+        assertTrue(table.grabLock(objects(3), objects(3), 6L));
+        assertFalse(table.grabLock(objects(3), none, 7L));
+
+        table.releaseLock(objects(1, 2), none, 1L);
+        table.releaseLock(objects(1), none, 2L);
+        table.releaseLock(none, objects(0), 5L);
+        table.releaseLock(objects(3), objects(3), 6L);
+        if (kind == ObjectLockTable.Kind.Sync) {
+            // atomic locks stay cached once free
+            assertEquals(0, table.size());
+        }
+        assertTrue(table.grabLock(objects(3), objects(1, 2), 8L));
+    }
+
+    @Test
+    void lockRequestTest() {
+        Set<ObjectVN> reads = new HashSet<>();
+        Set<ObjectVN> writes = new HashSet<>();
+        for (long oid = 199; oid >= 0; oid--) {
+            if (oid % 3 == 0) {
+                writes.add(new ObjectVN(oid, 1));
+            }
+            if (oid % 2 == 0) {
+                reads.add(new ObjectVN(oid, 0));
+            }
+        }
+        LockRequest request = LockRequest.of(reads, writes);
+
+        // every oid read or written once, in ascending order
+        assertEquals(133, request.size());
+        for (int i = 1; i < request.size(); i++) {
+            assertTrue(request.oid(i - 1) < request.oid(i));
+        }
+        for (int i = 0; i < request.size(); i++) {
+            assertEquals(request.oid(i) % 3 == 0, request.isWrite(i));
+            // the version written wins over the version read
+            assertEquals(request.isWrite(i) ? 1 : 0, request.vnum(i));
+        }
+        assertEquals(67, request.numWrites());
+        assertEquals(67, request.getWrites().size());
+
+        ObjectLockTable table = new ObjectLockTable(ObjectLockTable.Kind.AtomicDebug);
+        assertTrue(table.grabLock(request, 1L));
+        assertFalse(table.grabLock(LockRequest.of(objects(3), Collections.emptySet()), 2L));
+        table.releaseLock(request, 1L);
+        assertTrue(table.grabLock(LockRequest.of(Collections.emptySet(), objects(2, 3)), 3L));
+    }
+
+    @Test
+    void syncTest() {
+        conflictTest(ObjectLockTable.Kind.Sync);
+    }
+
+    @Test
+    void atomicTest() {
+        conflictTest(ObjectLockTable.Kind.Atomic);
+    }
+
+    @Test
+    void atomicDebugTest() {
+        conflictTest(ObjectLockTable.Kind.AtomicDebug);
+    }
+
+    @Test
+    void atomicReleaseCheckTest() {
+        // tests run with assertions enabled, so plain atomic locks check their holders too
+        ObjectLockTable table = new ObjectLockTable(ObjectLockTable.Kind.Atomic);
+        Set<ObjectVN> none = Collections.emptySet();
+        assertTrue(table.grabLock(objects(1), none, 1L));
+        assertThrows(IllegalStateException.class, () -> table.releaseLock(objects(1), none, 2L));
+        table.releaseLock(objects(1), none, 1L);
+    }
+
+    @Test
+    void waitDieTest() {
+        ObjectLockTable table = new ObjectLockTable(ObjectLockTable.Kind.Sync,
+                ObjectLockTable.WaitPolicy.WaitDie, 5000);
+        Set<ObjectVN> none = Collections.emptySet();
+        assertTrue(table.grabLock(none, objects(1), 5L));
+
+        // younger than the holder, dies right away
+        assertFalse(table.grabLock(none, objects(1), 9L));
+        assertEquals(1, table.getNumDied());
+
+        // older than the holder, waits until it releases
+        CompletableFuture<Boolean> older = CompletableFuture.supplyAsync(() -> table.grabLock(none, objects(1), 2L));
+        try {
+            Thread.sleep(50);
+            assertFalse(older.isDone());
+            table.releaseLock(none, objects(1), 5L);
+            assertTrue(older.get(5, TimeUnit.SECONDS));
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            fail("older transaction did not get the lock");
+        }
+        assertEquals(0, table.getNumWaitTimeout());
+    }
+
+    @Test
+    void woundWaitTest() {
+        ObjectLockTable table = new ObjectLockTable(ObjectLockTable.Kind.Sync,
+                ObjectLockTable.WaitPolicy.WoundWait, 20);
+        Set<ObjectVN> none = Collections.emptySet();
+        assertTrue(table.grabLock(objects(1), none, 5L));
+
+        // an older writer wounds the younger reader, then times out waiting
+        assertFalse(table.grabLock(none, objects(1), 2L));
+        assertTrue(table.isWounded(5L));
+        assertEquals(1, table.getNumWounded());
+        assertEquals(1, table.getNumWaitTimeout());
+
+        // a younger writer only waits
+        assertFalse(table.grabLock(none, objects(1), 9L));
+        assertFalse(table.isWounded(9L));
+        assertEquals(1, table.getNumWounded());
+
+        // releasing forgets the wound
+        table.releaseLock(LockRequest.of(objects(1), none), 5L);
+        assertFalse(table.isWounded(5L));
+        assertTrue(table.grabLock(none, objects(1), 9L));
+
+        // a wounded transaction gives up waiting right away, and forgets the
+        // wound once a grab fails, as that ends it
+        assertTrue(table.grabLock(objects(4), none, 5L));
+        assertFalse(table.grabLock(none, objects(4), 2L));
+        assertTrue(table.isWounded(5L));
+        assertEquals(3, table.getNumWaitTimeout());
+        assertTrue(table.grabLock(none, objects(3), 1L));
+        assertFalse(table.grabLock(none, objects(3), 5L));
+        assertFalse(table.isWounded(5L));
+        assertEquals(3, table.getNumWaitTimeout());
+    }
+
+    @Test
+    void woundWaitDeadlockTest() throws InterruptedException, ExecutionException, TimeoutException {
+        ObjectLockTable table = new ObjectLockTable(ObjectLockTable.Kind.Sync,
+                ObjectLockTable.WaitPolicy.WoundWait, 5000);
+        Set<ObjectVN> none = Collections.emptySet();
+        assertTrue(table.grabLock(none, objects(1), 2L));
+        assertTrue(table.grabLock(none, objects(2), 9L));
+
+        // each waits for the lock the other holds
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            long start = System.nanoTime();
+            CompletableFuture<Boolean> younger = CompletableFuture.supplyAsync(
+                    () -> table.grabLock(none, objects(1), 9L), pool);
+            CompletableFuture<Boolean> older = CompletableFuture.supplyAsync(
+                    () -> table.grabLock(none, objects(2), 2L), pool);
+
+            // the younger one is wounded and gives up long before the longest wait
+            assertFalse(younger.get(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            assertEquals(0, table.getNumWaitTimeout());
+
+            // once it aborts, the older one gets its lock
+            table.releaseLock(none, objects(2), 9L);
+            assertTrue(older.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import smartbuffer.OptimizedNumLinkBuffer;
+import smartbuffer.SmartBuffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PartitionedStoreTest {
+    private static Set<ObjectVN> objects(long vnum, long... oids) {
+        Set<ObjectVN> res = new HashSet<>();
+        for (long oid : oids) {
+            res.add(new ObjectVN(oid, vnum));
+        }
+        return res;
+    }
+
+    private static PartitionedStore newStore(PartitionedStore.Partitioning partitioning) {
+        List<StoreSB> parts = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            SmartBuffer buffer = new OptimizedNumLinkBuffer();
+            StoreSB part = new StoreSB(buffer, PartitionedStore.newVersionTable(p, 4, partitioning, 100, 10), true);
+            buffer.setStore(part);
+            parts.add(part);
+        }
+        PartitionedStore store = new PartitionedStore(parts, partitioning, 100, 10);
+        store.setWorkers(Collections.emptyList());
+        return store;
+    }
+
+    @Test
+    void partitionTest() {
+        for (PartitionedStore.Partitioning partitioning : PartitionedStore.Partitioning.values()) {
+            PartitionedStore store = newStore(partitioning);
+            // every object is in exactly the partition it maps to
+            for (long oid = 100; oid < 110; oid++) {
+                int p = PartitionedStore.partitionOf(oid, 4, partitioning, 100, 10);
+                for (int q = 0; q < 4; q++) {
+                    long expected = p == q ? 0 : VersionTable.ABSENT;
+                    assertEquals(expected, store.getPartitions().get(q).getVersion(oid));
+                }
+            }
+        }
+    }
+
+    @Test
+    void groupCommitTest() {
+        SmartBuffer buffer = new OptimizedNumLinkBuffer();
+        StoreSB part = new StoreSB(buffer, VersionTable.filled(100, 10, 0), true);
+        buffer.setStore(part);
+        part.setGroupCommit(8, 100);
+        assertThrows(IllegalArgumentException.class, () -> new PartitionedStore(
+                Collections.singletonList(part), PartitionedStore.Partitioning.Hash, 100, 10));
+    }
+
+    @Test
+    void multiPartitionTest() throws InterruptedException, ExecutionException {
+        PartitionedStore store = newStore(PartitionedStore.Partitioning.Range);
+        // objects 100 and 109 are in the first and last partitions
+        assertTrue(store.prepare(null, 1, objects(0, 100, 109), objects(1, 100, 109)).get());
+        // conflicts on 109 only, and holds no lock on 101 once aborted
+        assertFalse(store.prepare(null, 2, objects(0, 101, 109), objects(1, 101)).get());
+        store.abort(2);
+        store.commit(null, 1);
+        assertEquals(1, store.getVersion(100));
+        assertEquals(1, store.getVersion(109));
+        assertEquals(0, store.pending());
+
+        assertTrue(store.prepare(null, 3, objects(0, 101), objects(1, 101)).get());
+        store.commit(null, 3);
+        assertEquals(1, store.getVersion(101));
+        assertEquals(1, store.getNumAbortLock());
+        assertEquals("1", store.getCSVData().row()[2]);
+    }
+}
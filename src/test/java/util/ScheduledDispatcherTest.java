@@ -0,0 +1,42 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScheduledDispatcherTest {
+    @Test
+    void delayTest() {
+        // one thread, so the delays are all that reorder the messages
+        ScheduledDispatcher dispatcher = new ScheduledDispatcher(1);
+        List<Integer> delivered = new CopyOnWriteArrayList<>();
+        long start = System.nanoTime();
+        CompletableFuture<Void> late = dispatcher.send(50_000_000, () -> delivered.add(50));
+        CompletableFuture<Void> early = dispatcher.send(10_000_000, () -> delivered.add(10));
+        CompletableFuture<Void> now = dispatcher.send(0, () -> delivered.add(0));
+        CompletableFuture.allOf(late, early, now).join();
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+        assertEquals(0, (int) delivered.get(0));
+        assertEquals(10, (int) delivered.get(1));
+        assertEquals(50, (int) delivered.get(2));
+    }
+
+    @Test
+    void failureTest() {
+        ScheduledDispatcher dispatcher = new ScheduledDispatcher(1);
+        CompletableFuture<Void> failed = dispatcher.send(0, () -> {
+            throw new IllegalStateException();
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        // the thread survives the failure
+        dispatcher.send(0, () -> { }).join();
+    }
+}
@@ -0,0 +1,70 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import smartbuffer.OptimizedNumLinkBuffer;
+import smartbuffer.SmartBuffer;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoreMVTest {
+    private static Set<ObjectVN> objects(long vnum, long... oids) {
+        Set<ObjectVN> res = new HashSet<>();
+        for (long oid : oids) {
+            res.add(new ObjectVN(oid, vnum));
+        }
+        return res;
+    }
+
+    private static StoreMV newStore(SnapshotClock clock, long base) {
+        SmartBuffer buffer = new OptimizedNumLinkBuffer();
+        StoreMV store = new StoreMV(buffer, VersionTable.filled(base, 8, 0), true, clock, 16, 8,
+                ObjectLockTable.Kind.Sync);
+        buffer.setStore(store);
+        store.setWorkers(Collections.emptyList());
+        return store;
+    }
+
+    @Test
+    void snapshotTest() throws InterruptedException, ExecutionException {
+        SnapshotClock clock = new SnapshotClock();
+        StoreMV a = newStore(clock, 0);
+        StoreMV b = newStore(clock, 8);
+
+        assertTrue(a.prepare(null, 1, objects(0, 1), objects(1, 1)).get());
+        assertTrue(b.prepare(null, 1, objects(0, 9), objects(1, 9)).get());
+        clock.startCommit(1, 2);
+        a.commit(null, 1);
+
+        // transaction 1 is only installed at one store, so a snapshot sees neither write
+        long before = clock.beginSnapshot();
+        assertEquals(0, a.read(1, before)[0]);
+        assertEquals(0, b.read(9, before)[0]);
+
+        b.commit(null, 1);
+        long after = clock.beginSnapshot();
+        assertEquals(1, a.read(1, after)[0]);
+        assertEquals(1, b.read(9, after)[0]);
+        assertEquals(0, a.read(1, before)[0]);
+        clock.endSnapshot(after);
+
+        // the open snapshot keeps the initial version of object 1
+        for (long vnum = 2; vnum <= 4; vnum++) {
+            assertTrue(a.prepare(null, vnum, objects(vnum - 1, 1), objects(vnum, 1)).get());
+            a.commit(null, vnum);
+        }
+        assertEquals(0, a.read(1, before)[0]);
+        assertEquals(4, a.getChains().getNumVersions());
+
+        clock.endSnapshot(before);
+        assertTrue(a.prepare(null, 5, objects(4, 1), objects(5, 1)).get());
+        a.commit(null, 5);
+        assertEquals(2, a.getChains().getNumVersions());
+        assertEquals(5, a.read(1, clock.beginSnapshot())[0]);
+    }
+}
@@ -0,0 +1,115 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import smartbuffer.OptimizedNumLinkBuffer;
+import smartbuffer.SmartBuffer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoreSBTest {
+    private static Set<ObjectVN> objects(long vnum, long... oids) {
+        Set<ObjectVN> res = new HashSet<>();
+        for (long oid : oids) {
+            res.add(new ObjectVN(oid, vnum));
+        }
+        return res;
+    }
+
+    @Test
+    void groupCommitTest() throws InterruptedException, ExecutionException {
+        SmartBuffer buffer = new OptimizedNumLinkBuffer();
+        StoreSB store = new StoreSB(buffer, VersionTable.filled(0, 8, 0), true);
+        buffer.setStore(store);
+        store.setWorkers(Collections.emptyList());
+        // a window long enough for every commit below to join one batch
+        store.setGroupCommit(8, 200_000);
+
+        for (long tid = 1; tid <= 4; tid++) {
+            assertTrue(store.prepare(null, tid, objects(0, tid), objects(1, tid)).get());
+        }
+        // waits in the buffer for the version committed by transaction 1
+        Future<Boolean> buffered = store.prepare(null, 5, objects(1, 1), Collections.emptySet());
+
+        List<Thread> committers = new ArrayList<>();
+        for (long tid = 1; tid <= 4; tid++) {
+            long t = tid;
+            Thread committer = new Thread(() -> store.commit(null, t));
+            committers.add(committer);
+            committer.start();
+        }
+        for (Thread committer : committers) {
+            committer.join();
+        }
+
+        for (long oid = 1; oid <= 4; oid++) {
+            assertEquals(1, store.getVersion(oid));
+        }
+        assertTrue(buffered.get());
+        long batches = store.getCommitBatch().getCount();
+        assertTrue(batches >= 1 && batches <= 4);
+        assertEquals(4.0, store.getCommitBatch().getMean() * batches);
+    }
+
+    @Test
+    void recoverTest() throws IOException, InterruptedException, ExecutionException {
+        Path dir = Files.createTempDirectory("wal");
+        try {
+            StoreSB store = new StoreSB(new OptimizedNumLinkBuffer(), VersionTable.filled(0, 8, 0), true);
+            store.setWorkers(Collections.emptyList());
+            WriteAheadLog log = new WriteAheadLog(dir, 1 << 12, WriteAheadLog.SyncPolicy.Always, 0);
+            store.setLog(log);
+
+            assertTrue(store.prepare(null, 1, objects(0, 1), objects(1, 1)).get());
+            store.commit(null, 1);
+            // prepared when the checkpoint is taken
+            assertTrue(store.prepare(null, 2, objects(0, 2), objects(1, 2)).get());
+            assertTrue(store.checkpoint() > 0);
+
+            // only in the log after the checkpoint
+            assertTrue(store.prepare(null, 3, objects(0, 3), objects(1, 3)).get());
+            store.commit(null, 3);
+            assertTrue(store.prepare(null, 4, objects(0, 4), objects(1, 4)).get());
+            assertTrue(store.prepare(null, 5, objects(0, 5), objects(1, 5)).get());
+            store.abort(5);
+            log.close();
+
+            SmartBuffer buffer = new OptimizedNumLinkBuffer();
+            StoreSB recovered = StoreSB.recover(buffer, dir, 1 << 12, WriteAheadLog.SyncPolicy.Always, 0, true);
+            buffer.setStore(recovered);
+            recovered.setWorkers(Collections.emptyList());
+            assertEquals(1, recovered.getVersion(1));
+            assertEquals(0, recovered.getVersion(2));
+            assertEquals(1, recovered.getVersion(3));
+            assertEquals(0, recovered.getVersion(5));
+            assertEquals(new HashSet<>(Arrays.asList(2L, 4L)), recovered.pendingkey());
+
+            // the in-doubt transactions still hold their locks, and can commit
+            assertFalse(recovered.prepare(null, 6, objects(0, 4), objects(1, 4)).get());
+            recovered.commit(null, 2);
+            recovered.commit(null, 4);
+            assertEquals(1, recovered.getVersion(2));
+            assertEquals(1, recovered.getVersion(4));
+            assertTrue(recovered.prepare(null, 7, objects(1, 4), objects(2, 4)).get());
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import smartbuffer.OptimizedNumLinkBuffer;
+import smartbuffer.SmartBuffer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TxnTest {
+    @Test
+    void asyncTest() {
+        SmartBuffer buffer = new OptimizedNumLinkBuffer();
+        StoreSB store = new StoreSB(buffer, VersionTable.filled(0, 100, 0), true);
+        buffer.setStore(store);
+        List<Store> stores = Collections.singletonList(store);
+        Worker worker = new Worker(0, stores, false);
+        store.setWorkers(Collections.singletonList(worker));
+        // every message takes 20ms, and two threads deliver all of them
+        LinkModel slow = new LinkModel(new LatencyDistribution(LatencyDistribution.Kind.Constant, 20_000, 0), 0, 0);
+        worker.network = new Network(Topology.of(slow, slow), stores, false, true);
+        worker.dispatcher = new ScheduledDispatcher(2);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Boolean>> committed = new ArrayList<>();
+        for (long oid = 0; oid < 100; oid++) {
+            HashMap<Store, HashSet<ObjectVN>> reads = new HashMap<>();
+            HashMap<Store, HashSet<ObjectVN>> writes = new HashMap<>();
+            Util.addToSetMap(reads, store, new ObjectVN(oid, 0));
+            Util.addToSetMap(writes, store, new ObjectVN(oid, 1));
+            Txn txn = new Txn(worker, oid * 32, reads, writes);
+            committed.add(txn.original_prepareAsync().thenCompose(prepared -> prepared
+                    ? txn.original_commitAsync().thenApply(v -> true)
+                    : CompletableFuture.completedFuture(false)));
+        }
+        for (CompletableFuture<Boolean> c : committed) {
+            assertTrue(c.join());
+        }
+        // the transactions were in flight together, not one after another
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMillis < 1000, "took " + elapsedMillis + "ms");
+        for (long oid = 0; oid < 100; oid++) {
+            assertEquals(1, store.getVersion(oid));
+        }
+    }
+
+    @Test
+    void abortAfterPrepareTest() {
+        List<Store> stores = new ArrayList<>();
+        HashMap<Store, HashSet<ObjectVN>> reads = new HashMap<>();
+        HashMap<Store, HashSet<ObjectVN>> writes = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            SmartBuffer buffer = new OptimizedNumLinkBuffer();
+            StoreSB store = new StoreSB(buffer, VersionTable.filled(i * 100, 100, 0), false);
+            buffer.setStore(store);
+            stores.add(store);
+            Util.addToSetMap(writes, store, new ObjectVN(i * 100, 1));
+        }
+        Worker worker = new Worker(0, stores, false);
+        // deliver the last message sent first, so messages overtake each other
+        Deque<Runnable> messages = new ArrayDeque<>();
+        worker.dispatcher = (delayNanos, message) -> {
+            CompletableFuture<Void> delivered = new CompletableFuture<>();
+            messages.push(() -> {
+                message.run();
+                delivered.complete(null);
+            });
+            return delivered;
+        };
+        // prepares are sent in the order of the write map, so the last store
+        // gets its prepare first and rejects it, as another transaction holds
+        // the object
+        List<Store> sent = new ArrayList<>(writes.keySet());
+        StoreSB late = (StoreSB) sent.get(0);
+        StoreSB rejecting = (StoreSB) sent.get(1);
+        for (Store s : stores) {
+            s.setWorkers(Collections.singletonList(worker));
+        }
+        rejecting.prepare(worker, 999, Collections.emptySet(), writes.get(rejecting),
+                (t, outcome, reason) -> { });
+
+        Txn txn = new Txn(worker, 32, reads, writes);
+        boolean concurrent = Txn.TxnConcurrent;
+        Txn.TxnConcurrent = true;
+        try {
+            CompletableFuture<Boolean> prepared = txn.original_prepareAsync();
+            while (!messages.isEmpty()) {
+                messages.pop().run();
+            }
+            assertFalse(prepared.join());
+        } finally {
+            Txn.TxnConcurrent = concurrent;
+        }
+        // the abort did not overtake the prepare at the other store
+        assertEquals(1, rejecting.pending());
+        assertEquals(0, late.pending());
+    }
+}
@@ -0,0 +1,47 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class VersionChainsTest {
+    @Test
+    void readTest() {
+        VersionChains chains = new VersionChains(new byte[4], 8);
+        assertEquals(0, chains.read(1, 0).vnum);
+        chains.install(1, 1, 1, new byte[4], 0);
+        chains.install(1, 2, 3, new byte[4], 0);
+        assertEquals(0, chains.read(1, 0).vnum);
+        assertEquals(1, chains.read(1, 2).vnum);
+        assertEquals(2, chains.read(1, 5).vnum);
+        assertEquals(2, chains.getNumVersions());
+        assertEquals(8, chains.getNumBytes());
+    }
+
+    @Test
+    void collectTest() {
+        VersionChains chains = new VersionChains(new byte[4], 8);
+        chains.install(1, 1, 1, new byte[4], 0);
+        chains.install(1, 2, 3, new byte[4], 0);
+        // nothing reads before 4, so only version 2 is needed behind version 3
+        chains.install(1, 3, 5, new byte[4], 4);
+        assertNull(chains.read(1, 2));
+        assertEquals(2, chains.read(1, 4).vnum);
+        assertEquals(3, chains.read(1, 5).vnum);
+        assertEquals(2, chains.getNumVersions());
+        assertEquals(1, chains.getNumCollected());
+    }
+
+    @Test
+    void boundTest() {
+        VersionChains chains = new VersionChains(new byte[4], 2);
+        for (long vnum = 1; vnum <= 3; vnum++) {
+            chains.install(1, vnum, vnum, new byte[4], 0);
+        }
+        // a snapshot at 0 still runs, but its version is gone
+        assertNull(chains.read(1, 1));
+        assertEquals(2, chains.read(1, 2).vnum);
+        assertEquals(2, chains.getNumVersions());
+    }
+}
@@ -0,0 +1,101 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VersionTableTest {
+    @Test
+    void denseTest() {
+        VersionTable table = VersionTable.filled(100, 10, 0);
+        assertEquals(0, table.get(100));
+        assertEquals(0, table.get(109));
+        assertEquals(VersionTable.ABSENT, table.get(110));
+
+        // versions only move forward
+        assertTrue(table.advance(105, 3));
+        assertFalse(table.advance(105, 2));
+        assertEquals(3, table.get(105));
+
+        table.set(105, 1);
+        assertEquals(1, table.get(105));
+    }
+
+    @Test
+    void overflowTest() {
+        VersionTable table = new VersionTable();
+        for (long oid = 0; oid < 1000; oid++) {
+            table.set(oid * 7, oid);
+        }
+        // grown well past its initial capacity without losing a version
+        for (long oid = 0; oid < 1000; oid++) {
+            assertEquals(oid, table.get(oid * 7));
+        }
+        assertEquals(VersionTable.ABSENT, table.get(1));
+        assertTrue(table.advance(1, 0));
+        assertEquals(0, table.get(1));
+    }
+
+    @Test
+    void concurrentAdvanceTest() throws InterruptedException {
+        VersionTable table = VersionTable.filled(0, 16, 0);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (long vnum = 1; vnum <= 10000; vnum++) {
+                    table.advance(vnum % 16, vnum);
+                    table.advance(1000 + vnum % 64, vnum);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // every object ends at the largest version any thread wrote
+        for (long oid = 0; oid < 16; oid++) {
+            assertEquals(10000 - (10000 - oid) % 16, table.get(oid));
+        }
+        for (long oid = 1000; oid < 1064; oid++) {
+            assertEquals(10000 - (10000 - (oid - 1000)) % 64, table.get(oid));
+        }
+    }
+
+    @Test
+    void concurrentInsertTest() throws InterruptedException {
+        VersionTable table = VersionTable.filled(0, 16, 0);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            long first = 1000 + t * 2000L;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // every thread adds new oids past the dense range at once
+                for (long oid = first; oid < first + 2000; oid++) {
+                    table.advance(oid, 1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertFalse(thread.isAlive(), "inserts did not finish");
+        }
+        for (long oid = 1000; oid < 1000 + 16 * 2000; oid++) {
+            assertEquals(1, table.get(oid));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAheadLogTest {
+    private Path dir;
+
+    private static LockRequest access(long... writes) {
+        Set<ObjectVN> res = new HashSet<>();
+        for (long oid : writes) {
+            res.add(new ObjectVN(oid, oid + 1));
+        }
+        // read only object 100, which the log leaves out
+        return LockRequest.of(Collections.singleton(new ObjectVN(100, 0)), res);
+    }
+
+    @Test
+    void recordTest() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(dir, 1 << 12, WriteAheadLog.SyncPolicy.Always, 0)) {
+            long lsn = log.appendPrepare(7, access(1, 2));
+            log.syncIfRequired(lsn);
+            log.appendCommit(7, access(1, 2));
+            log.appendAbort(8);
+            assertEquals(3, log.getNumRecords());
+            assertEquals(3 * 21 + 2 * 32, log.getNumBytes());
+            assertEquals(1, log.getSyncLatency().getCount());
+        }
+
+        ByteBuffer segment = ByteBuffer.wrap(Files.readAllBytes(WriteAheadLog.segmentPath(dir, 0)));
+        assertEquals(1 << 12, segment.capacity());
+        int length = segment.getInt();
+        assertEquals(17 + 32, length);
+        assertEquals(WriteAheadLog.PREPARE, segment.get());
+        assertEquals(7, segment.getLong());
+        assertEquals(2, segment.getInt());
+        assertEquals(1, segment.getLong());
+        assertEquals(2, segment.getLong());
+        assertEquals(2, segment.getLong());
+        assertEquals(3, segment.getLong());
+        CRC32 crc = new CRC32();
+        crc.update(segment.array(), 4, length - 4);
+        assertEquals((int) crc.getValue(), segment.getInt());
+    }
+
+    @Test
+    void rollTest() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(dir, 256, WriteAheadLog.SyncPolicy.None, 0)) {
+            // 85 bytes each, so three do not fit in one segment
+            for (long tid = 0; tid < 3; tid++) {
+                log.appendCommit(tid, access(1, 2, 3, 4));
+            }
+            assertEquals(0, log.getSyncLatency().getCount());
+        }
+        assertTrue(Files.exists(WriteAheadLog.segmentPath(dir, 1)));
+        ByteBuffer segment = ByteBuffer.wrap(Files.readAllBytes(WriteAheadLog.segmentPath(dir, 1)));
+        assertEquals(85 - 4, segment.getInt());
+        assertEquals(WriteAheadLog.COMMIT, segment.get());
+        assertEquals(2, segment.getLong());
+    }
+
+    @Test
+    void replayTest() throws IOException {
+        long end;
+        try (WriteAheadLog log = new WriteAheadLog(dir, 256, WriteAheadLog.SyncPolicy.None, 0)) {
+            for (long tid = 0; tid < 3; tid++) {
+                log.appendCommit(tid, access(1, 2, 3, 4));
+            }
+            log.appendAbort(3);
+            end = log.appended();
+        }
+        List<Long> tids = new ArrayList<>();
+        // follows the log into its second segment
+        assertEquals(end, WriteAheadLog.replay(dir, 256, 0, (type, tid, oids, vnums) -> {
+            tids.add(tid);
+            if (type == WriteAheadLog.COMMIT) {
+                assertEquals(4, oids.length);
+                assertEquals(oids[3] + 1, vnums[3]);
+            }
+        }));
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), tids);
+
+        // a torn record ends the log
+        Path last = WriteAheadLog.segmentPath(dir, 1);
+        byte[] bytes = Files.readAllBytes(last);
+        bytes[85 + 10] ^= 1;
+        Files.write(last, bytes);
+        tids.clear();
+        long torn = WriteAheadLog.replay(dir, 256, 0, (type, tid, oids, vnums) -> tids.add(tid));
+        assertEquals(Arrays.asList(0L, 1L, 2L), tids);
+        assertTrue(torn < end);
+
+        // and is where the reopened log appends
+        try (WriteAheadLog log = new WriteAheadLog(dir, 256, WriteAheadLog.SyncPolicy.None, 0, torn)) {
+            log.appendAbort(4);
+        }
+        tids.clear();
+        WriteAheadLog.replay(dir, 256, 0, (type, tid, oids, vnums) -> tids.add(tid));
+        assertEquals(Arrays.asList(0L, 1L, 2L, 4L), tids);
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("wal");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}